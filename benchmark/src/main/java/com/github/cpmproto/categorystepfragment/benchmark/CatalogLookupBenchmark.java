@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.github.cpmproto.categorystepfragment.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * getActionsByKey and findActionPositionById, linear against indexed. Each call looks up the
+ * next category so every key of the catalog is visited.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CatalogLookupBenchmark {
+    private int mCursor;
+
+    private int next(CatalogState catalog) {
+        int category = mCursor;
+        mCursor = category + 1 == catalog.categories ? 0 : category + 1;
+        return category;
+    }
+
+    @Benchmark
+    public List<CatalogModel.Action> actionsByKeyLinear(CatalogState catalog) {
+        return CatalogModel.actionsByKeyLinear(catalog.lists, catalog.keys[next(catalog)], catalog.firstKey);
+    }
+
+    @Benchmark
+    public List<CatalogModel.Action> actionsByKeyIndexed(CatalogState catalog) {
+        return catalog.index.get(catalog.keys[next(catalog)]).composed;
+    }
+
+    @Benchmark
+    public int positionByIdLinear(CatalogState catalog) {
+        int category = next(catalog);
+        return CatalogModel.positionByIdLinear(catalog.lists, catalog.ids[category],
+                catalog.keys[category], catalog.firstKey);
+    }
+
+    @Benchmark
+    public int positionByIdIndexed(CatalogState catalog) {
+        int category = next(catalog);
+        return catalog.index.get(catalog.keys[category]).positions.get(catalog.ids[category], -1);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.github.cpmproto.categorystepfragment.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JVM stand-ins for GuidedAction and GuidedActionList, and the linear lookups the fragment used
+ * before categories were indexed. They keep the benchmarks free of Android classes.
+ */
+final class CatalogModel {
+    private CatalogModel() {
+    }
+
+    static final class Action {
+        final long id;
+        final String title;
+        String description;
+        boolean checked;
+        List<Action> subActions;
+
+        Action(long id, String title, String description) {
+            this.id = id;
+            this.title = title;
+            this.description = description;
+        }
+    }
+
+    static final class ActionList {
+        final String key;
+        final List<Action> actions;
+
+        ActionList(String key, List<Action> actions) {
+            this.key = key;
+            this.actions = actions;
+        }
+    }
+
+    /**
+     * The former GuidedStepListFragment.getActionsByKey(String): a scan over the categories
+     * and a new list holding the header and the items on every call.
+     */
+    static List<Action> actionsByKeyLinear(List<ActionList> lists, String key, String firstKey) {
+        if (key == null || key.isEmpty())
+            return lists.get(0).actions;
+
+        List<Action> actions = new ArrayList<>();
+        for (ActionList list : lists) {
+            if (list.key.equals(key)) {
+                if (!list.key.equals(firstKey)) {
+                    Action header = lists.get(0).actions.get(0);
+                    header.description = key;
+                    actions.add(header);
+                }
+                actions.addAll(list.actions);
+                break;
+            }
+        }
+        return actions;
+    }
+
+    /**
+     * The former GuidedStepListFragment.findActionPositionById(long, String).
+     */
+    static int positionByIdLinear(List<ActionList> lists, long id, String key, String firstKey) {
+        List<Action> actions = actionsByKeyLinear(lists, key, firstKey);
+        for (int i = 0; i < actions.size(); i++) {
+            if (actions.get(i).id == id)
+                return i;
+        }
+        return -1;
+    }
+}
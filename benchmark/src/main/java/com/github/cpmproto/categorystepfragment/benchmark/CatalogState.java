@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.github.cpmproto.categorystepfragment.benchmark;
+
+import com.github.cpmproto.categorystepfragment.action.ActionCategory;
+import com.github.cpmproto.categorystepfragment.action.ActionElement;
+import com.github.cpmproto.categorystepfragment.util.LongIntHashMap;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Catalog of a given shape, in the linear layout the fragment used to search and in the
+ * indexed layout of GuidedActionIndex: composed lists and id positions per category key.
+ */
+@State(Scope.Benchmark)
+public class CatalogState {
+    @Param({"10", "1000", "100000"})
+    public int elements;
+
+    @Param({"1", "100", "10000"})
+    public int categories;
+
+    List<ActionCategory> actionCategories;
+    List<CatalogModel.ActionList> lists;
+    String firstKey;
+    String[] keys;
+    long[] ids;
+    Map<String, IndexedCategory> index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        actionCategories = new ArrayList<>(categories);
+        lists = new ArrayList<>(categories);
+        keys = new String[categories];
+        ids = new long[categories];
+
+        CatalogModel.Action header = new CatalogModel.Action(0, "Catalog", "");
+        header.subActions = new ArrayList<>();
+        for (int i = 0; i < categories; i++) {
+            int from = (int) ((long) elements * i / categories);
+            int to = (int) ((long) elements * (i + 1) / categories);
+            keys[i] = "Category " + i;
+
+            List<ActionElement> actionElements = new ArrayList<>(to - from);
+            List<CatalogModel.Action> actions = new ArrayList<>(to - from + 1);
+            if (i == 0)
+                actions.add(header);
+
+            for (int id = from + 1; id <= to; id++) {
+                actionElements.add(new ActionElement(id, "Title " + id, "Description " + id, ""));
+                actions.add(new CatalogModel.Action(id, "Title " + id, "Description " + id));
+            }
+
+            // Probe the last element of each category, the worst case of a scan.
+            ids[i] = to > from ? to : 0;
+            actionCategories.add(new ActionCategory(keys[i], actionElements));
+            lists.add(new CatalogModel.ActionList(keys[i], actions));
+        }
+        firstKey = keys[0];
+
+        index = new HashMap<>(categories * 2);
+        for (CatalogModel.ActionList list : lists) {
+            List<CatalogModel.Action> composed = list.actions;
+            if (!list.key.equals(firstKey)) {
+                composed = new ArrayList<>(list.actions.size() + 1);
+                composed.add(header);
+                composed.addAll(list.actions);
+            }
+
+            LongIntHashMap positions = new LongIntHashMap(composed.size());
+            for (int i = 0; i < composed.size(); i++)
+                positions.putIfAbsent(composed.get(i).id, i);
+
+            index.put(list.key, new IndexedCategory(composed, positions));
+        }
+    }
+
+    static final class IndexedCategory {
+        final List<CatalogModel.Action> composed;
+        final LongIntHashMap positions;
+
+        IndexedCategory(List<CatalogModel.Action> composed, LongIntHashMap positions) {
+            this.composed = composed;
+            this.positions = positions;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.github.cpmproto.categorystepfragment.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A category switch up to the adapter: the list of the next category is looked up and copied
+ * into the list the adapter binds from, as CategoryActionAdapter.setActions does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CategorySwitchBenchmark {
+    private final List<CatalogModel.Action> mAdapterItems = new ArrayList<>();
+    private int mCursor;
+
+    private String nextKey(CatalogState catalog) {
+        int category = mCursor;
+        mCursor = category + 1 == catalog.categories ? 0 : category + 1;
+        return catalog.keys[category];
+    }
+
+    @Benchmark
+    public int switchLinear(CatalogState catalog) {
+        List<CatalogModel.Action> actions = CatalogModel.actionsByKeyLinear(catalog.lists,
+                nextKey(catalog), catalog.firstKey);
+        mAdapterItems.clear();
+        mAdapterItems.addAll(actions);
+        return mAdapterItems.size();
+    }
+
+    @Benchmark
+    public int switchIndexed(CatalogState catalog) {
+        List<CatalogModel.Action> actions = catalog.index.get(nextKey(catalog)).composed;
+        mAdapterItems.clear();
+        mAdapterItems.addAll(actions);
+        return mAdapterItems.size();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.github.cpmproto.categorystepfragment.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Category chooser work done on every resume: rebuilding a sub action per category, against
+ * keeping the chooser built and moving the checked state only.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SubActionsBenchmark {
+    private static final int CHOOSER_PAGE_SIZE = 50;
+
+    private final List<CatalogModel.Action> mChooser = new ArrayList<>();
+    private int mSelected;
+    private int mChecked;
+
+    @Setup(Level.Iteration)
+    public void setUp(CatalogState catalog) {
+        mChooser.clear();
+        for (int i = 0, size = Math.min(CHOOSER_PAGE_SIZE, catalog.categories); i < size; i++)
+            mChooser.add(chooserAction(catalog, i));
+
+        mSelected = 0;
+        mChecked = 0;
+        mChooser.get(0).checked = true;
+    }
+
+    private static CatalogModel.Action chooserAction(CatalogState catalog, int category) {
+        return new CatalogModel.Action(category, catalog.actionCategories.get(category).getCategory(), "");
+    }
+
+    @Benchmark
+    public int rebuildChooser(CatalogState catalog) {
+        List<CatalogModel.Action> chooser = catalog.lists.get(0).actions.get(0).subActions;
+        chooser.clear();
+        for (int i = 0; i < catalog.categories; i++) {
+            CatalogModel.Action action = chooserAction(catalog, i);
+            action.checked = i == 0;
+            chooser.add(action);
+        }
+        return chooser.size();
+    }
+
+    @Benchmark
+    public int updateChooser() {
+        mSelected = mSelected + 1 == mChooser.size() ? 0 : mSelected + 1;
+        mChooser.get(mChecked).checked = false;
+        mChooser.get(mSelected).checked = true;
+        mChecked = mSelected;
+        return mChecked;
+    }
+}
@@ -23,6 +23,9 @@ import java.util.List;
 public class ActionCategory {
     private String category;
     private List<ActionElement> actionElements;
+    private CatalogSource catalogSource;
+    private List<ActionCategory> children;
+    private CategorySource childSource;
 
     public List<ActionElement> getActionElements() {
         return actionElements;
@@ -32,6 +35,48 @@ public class ActionCategory {
         this.actionElements = actionElements;
     }
 
+    /**
+     * @return Source the elements are paged from, or null if they are all in
+     * {@link #getActionElements()}.
+     */
+    public CatalogSource getCatalogSource() {
+        return catalogSource;
+    }
+
+    public void setCatalogSource(CatalogSource catalogSource) {
+        this.catalogSource = catalogSource;
+    }
+
+    /**
+     * @return Sub categories, or null if there are none or they are not loaded yet.
+     */
+    public List<ActionCategory> getChildren() {
+        return children;
+    }
+
+    public void setChildren(List<ActionCategory> children) {
+        this.children = children;
+    }
+
+    /**
+     * @return Source the sub categories are loaded from when they are first opened, or null if
+     * they are all in {@link #getChildren()}.
+     */
+    public CategorySource getChildSource() {
+        return childSource;
+    }
+
+    public void setChildSource(CategorySource childSource) {
+        this.childSource = childSource;
+    }
+
+    /**
+     * @return True if the category has sub categories, loaded or not.
+     */
+    public boolean hasChildren() {
+        return children != null ? !children.isEmpty() : childSource != null;
+    }
+
     public String getCategory() {
         return category;
     }
@@ -49,4 +94,14 @@ public class ActionCategory {
         this.category = category;
         this.actionElements = actionElements;
     }
+
+    /**
+     * Creates a category whose elements are paged from a source. Loaded pages are appended to
+     * {@link #getActionElements()}.
+     */
+    public ActionCategory(String category, CatalogSource catalogSource) {
+        this.category = category;
+        this.actionElements = new ArrayList<>();
+        this.catalogSource = catalogSource;
+    }
 }
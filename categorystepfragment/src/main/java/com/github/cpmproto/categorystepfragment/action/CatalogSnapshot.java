@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.github.cpmproto.categorystepfragment.action;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of a catalog, written once to app storage and memory-mapped on later starts.
+ * Opening a snapshot maps the file and checks its tables in one sequential pass over the ints,
+ * so a corrupt file fails to open rather than when an element is read. Elements and their
+ * strings are decoded from the mapped buffer when they are accessed; the last strings decoded
+ * are kept in a small cache that reads without locking.
+ * <p/>
+ * Layout, big-endian:
+ * <pre>
+ * int magic, int version
+ * int stringCount, int[stringCount + 1] string offsets, byte[] UTF-8 string data
+ * int categoryCount, {int name, int firstElement, int elementCount}[categoryCount]
+ * int elementCount, int[elementCount] ids, int[elementCount] descriptions,
+ *     int[elementCount] sub descriptions, int[elementCount] image urls
+ * </pre>
+ * Strings are stored once in the string table and referenced by index, null strings as empty
+ * ones. The {@link ActionElement#getObject()} payload is not stored.
+ */
+public final class CatalogSnapshot implements CatalogView {
+    private static final int MAGIC = 0x43534e50;
+    private static final int VERSION = 1;
+    private static final int CATEGORY_RECORD_INTS = 3;
+    private static final int STRING_CACHE_SIZE = 256;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mBuffer;
+    private final int mStringCount;
+    private final int mStringOffsets;
+    private final int mStringData;
+    private final int mCategoryCount;
+    private final int mCategories;
+    private final int mElementCount;
+    private final int mIds;
+    private final int mDescriptions;
+    private final int mSubDescriptions;
+    private final int mImageUrls;
+    // Decoded strings by index modulo the size. Entries are immutable, so a racy read sees
+    // either a complete entry or none.
+    private final CachedString[] mStringCache = new CachedString[STRING_CACHE_SIZE];
+
+    private CatalogSnapshot(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        if (buffer.capacity() < 12 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            throw new IOException("Not a catalog snapshot");
+
+        int offset = 8;
+        mStringCount = readCount(offset);
+        mStringOffsets = offset + 4;
+        mStringData = checkBounds(mStringOffsets + 4L * (mStringCount + 1L));
+        offset = checkBounds((long) mStringData + readCount(mStringOffsets + 4 * mStringCount));
+
+        mCategoryCount = readCount(offset);
+        mCategories = offset + 4;
+        offset = checkBounds(mCategories + 4L * CATEGORY_RECORD_INTS * mCategoryCount);
+
+        mElementCount = readCount(offset);
+        mIds = offset + 4;
+        mDescriptions = checkBounds(mIds + 4L * mElementCount);
+        mSubDescriptions = checkBounds(mDescriptions + 4L * mElementCount);
+        mImageUrls = checkBounds(mSubDescriptions + 4L * mElementCount);
+        checkBounds(mImageUrls + 4L * mElementCount);
+
+        validate();
+    }
+
+    /**
+     * Maps a snapshot written by {@link #write(File, List)}. The file can be replaced once it
+     * is mapped, the mapping keeps its contents.
+     *
+     * @param file The snapshot file.
+     * @return The mapped snapshot.
+     * @throws IOException If the file cannot be read or is not a valid snapshot.
+     */
+    public static CatalogSnapshot open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            return new CatalogSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the categories. The file is written aside and renamed in place, so
+     * a snapshot being read is never left half written.
+     *
+     * @param file       Destination of the snapshot.
+     * @param categories Categories of the catalog.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public static void write(File file, List<ActionCategory> categories) throws IOException {
+        List<String> strings = new ArrayList<>();
+        Map<String, Integer> stringIndexes = new HashMap<>();
+        int elementCount = 0;
+        for (ActionCategory category : categories)
+            elementCount += category.getActionElements().size();
+
+        int[] categoryRecords = new int[CATEGORY_RECORD_INTS * categories.size()];
+        int[] ids = new int[elementCount];
+        int[] descriptions = new int[elementCount];
+        int[] subDescriptions = new int[elementCount];
+        int[] imageUrls = new int[elementCount];
+
+        int element = 0;
+        for (int i = 0, size = categories.size(); i < size; i++) {
+            ActionCategory category = categories.get(i);
+            List<ActionElement> actionElements = category.getActionElements();
+            categoryRecords[CATEGORY_RECORD_INTS * i] = intern(category.getCategory(), strings, stringIndexes);
+            categoryRecords[CATEGORY_RECORD_INTS * i + 1] = element;
+            categoryRecords[CATEGORY_RECORD_INTS * i + 2] = actionElements.size();
+
+            for (ActionElement actionElement : actionElements) {
+                ids[element] = actionElement.getId();
+                descriptions[element] = intern(actionElement.getDescription(), strings, stringIndexes);
+                subDescriptions[element] = intern(actionElement.getSubDescription(), strings, stringIndexes);
+                imageUrls[element] = intern(actionElement.getImageUrl(), strings, stringIndexes);
+                element++;
+            }
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        boolean written = false;
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            byte[][] encoded = new byte[strings.size()][];
+            out.writeInt(strings.size());
+            int stringOffset = 0;
+            out.writeInt(stringOffset);
+            for (int i = 0; i < encoded.length; i++) {
+                encoded[i] = strings.get(i).getBytes(UTF_8);
+                stringOffset += encoded[i].length;
+                out.writeInt(stringOffset);
+            }
+            for (byte[] bytes : encoded)
+                out.write(bytes);
+
+            out.writeInt(categories.size());
+            writeInts(out, categoryRecords);
+
+            out.writeInt(elementCount);
+            writeInts(out, ids);
+            writeInts(out, descriptions);
+            writeInts(out, subDescriptions);
+            writeInts(out, imageUrls);
+
+            // The data must be on disk before the rename makes it the snapshot.
+            out.flush();
+            stream.getFD().sync();
+            written = true;
+        } finally {
+            out.close();
+            if (!written)
+                temp.delete();
+        }
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    @Override
+    public int getCategoryCount() {
+        return mCategoryCount;
+    }
+
+    @Override
+    public String getCategoryName(int category) {
+        return getString(mBuffer.getInt(categoryRecord(category)));
+    }
+
+    @Override
+    public int getFirstElement(int category) {
+        return mBuffer.getInt(categoryRecord(category) + 4);
+    }
+
+    @Override
+    public int getElementCount(int category) {
+        return mBuffer.getInt(categoryRecord(category) + 8);
+    }
+
+    @Override
+    public int getTotalElementCount() {
+        return mElementCount;
+    }
+
+    @Override
+    public int getId(int element) {
+        return mBuffer.getInt(mIds + 4 * checkElement(element));
+    }
+
+    @Override
+    public String getDescription(int element) {
+        return getString(mBuffer.getInt(mDescriptions + 4 * checkElement(element)));
+    }
+
+    @Override
+    public String getSubDescription(int element) {
+        return getString(mBuffer.getInt(mSubDescriptions + 4 * checkElement(element)));
+    }
+
+    @Override
+    public String getImageUrl(int element) {
+        return getString(mBuffer.getInt(mImageUrls + 4 * checkElement(element)));
+    }
+
+    /**
+     * Reads an element of a category from the mapped buffer.
+     *
+     * @param category Index of the category.
+     * @param position Position of the element in the category.
+     * @return A new ActionElement holding the element.
+     */
+    public ActionElement getElement(int category, int position) {
+        int record = categoryRecord(category);
+        if (position < 0 || position >= mBuffer.getInt(record + 8))
+            throw new IndexOutOfBoundsException("Element " + position + " of category " + category);
+
+        return CatalogViews.getElement(this, mBuffer.getInt(record + 4) + position);
+    }
+
+    /**
+     * Creates the categories of the snapshot. Their element lists are read-only views of the
+     * mapped buffer: an element is only read when it is accessed.
+     *
+     * @return The categories, in the order they were written.
+     */
+    public List<ActionCategory> toActionCategories() {
+        return CatalogViews.toActionCategories(this);
+    }
+
+    private int categoryRecord(int category) {
+        if (category < 0 || category >= mCategoryCount)
+            throw new IndexOutOfBoundsException("Category " + category);
+
+        return mCategories + 4 * CATEGORY_RECORD_INTS * category;
+    }
+
+    private int checkElement(int element) {
+        if (element < 0 || element >= mElementCount)
+            throw new IndexOutOfBoundsException("Element " + element);
+
+        return element;
+    }
+
+    private String getString(int index) {
+        int slot = index & (STRING_CACHE_SIZE - 1);
+        CachedString cached = mStringCache[slot];
+        if (cached != null && cached.index == index)
+            return cached.string;
+
+        // Absolute reads only, the buffer is shared between threads.
+        int start = mStringData + mBuffer.getInt(mStringOffsets + 4 * index);
+        byte[] bytes = new byte[mStringData + mBuffer.getInt(mStringOffsets + 4 * (index + 1)) - start];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = mBuffer.get(start + i);
+
+        String string = new String(bytes, UTF_8);
+        mStringCache[slot] = new CachedString(index, string);
+        return string;
+    }
+
+    /**
+     * Checks the indexes read from the file: string offsets must not go backwards, categories
+     * must reference strings and elements of the snapshot, and so must the elements.
+     */
+    private void validate() throws IOException {
+        int previous = 0;
+        for (int i = 0; i <= mStringCount; i++) {
+            int stringOffset = mBuffer.getInt(mStringOffsets + 4 * i);
+            if (stringOffset < previous)
+                throw new IOException("Corrupt catalog snapshot: string " + i);
+
+            previous = stringOffset;
+        }
+
+        for (int category = 0; category < mCategoryCount; category++) {
+            int record = mCategories + 4 * CATEGORY_RECORD_INTS * category;
+            int first = mBuffer.getInt(record + 4);
+            int count = mBuffer.getInt(record + 8);
+            checkString(mBuffer.getInt(record));
+            if (first < 0 || count < 0 || first > mElementCount - count)
+                throw new IOException("Corrupt catalog snapshot: category " + category);
+        }
+
+        for (int element = 0; element < mElementCount; element++) {
+            checkString(mBuffer.getInt(mDescriptions + 4 * element));
+            checkString(mBuffer.getInt(mSubDescriptions + 4 * element));
+            checkString(mBuffer.getInt(mImageUrls + 4 * element));
+        }
+    }
+
+    private void checkString(int index) throws IOException {
+        if (index < 0 || index >= mStringCount)
+            throw new IOException("Corrupt catalog snapshot: string index " + index);
+    }
+
+    private int readCount(int offset) throws IOException {
+        checkBounds(offset + 4);
+        int count = mBuffer.getInt(offset);
+        if (count < 0)
+            throw new IOException("Corrupt catalog snapshot");
+
+        return count;
+    }
+
+    private int checkBounds(long end) throws IOException {
+        if (end < 0 || end > mBuffer.capacity())
+            throw new IOException("Truncated catalog snapshot");
+
+        return (int) end;
+    }
+
+    private static int intern(String string, List<String> strings, Map<String, Integer> indexes) {
+        if (string == null)
+            string = "";
+
+        Integer index = indexes.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.add(string);
+            indexes.put(string, index);
+        }
+        return index;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values)
+            out.writeInt(value);
+    }
+
+    private static final class CachedString {
+        final int index;
+        final String string;
+
+        CachedString(int index, String string) {
+            this.index = index;
+            this.string = string;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.github.cpmproto.categorystepfragment.action;
+
+import java.util.List;
+
+/**
+ * Pageable source of the elements of an {@link ActionCategory}, for catalogs too large to be
+ * loaded up front. Pages are requested in order as the user scrolls towards the end of the
+ * category.
+ */
+public interface CatalogSource {
+    /**
+     * Loads a page of elements. Called on a background thread, never concurrently for the same
+     * source.
+     *
+     * @param offset   Number of elements already loaded.
+     * @param pageSize Number of elements requested.
+     * @return The elements of the page. Fewer than pageSize elements mark the end of the
+     * catalog.
+     */
+    List<ActionElement> loadPage(int offset, int pageSize);
+}
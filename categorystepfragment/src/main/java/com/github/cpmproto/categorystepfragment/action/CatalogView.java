@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.cpmproto.categorystepfragment.action;
+
+/**
+ * Read-only catalog addressed by index instead of by object. Elements are numbered across the
+ * whole catalog and each category holds a contiguous range of them, so a catalog can be stored
+ * in flat arrays or in a file without one object per element. See {@link CompactCatalog} and
+ * {@link CatalogSnapshot}. Implementations are safe to read from any thread.
+ */
+public interface CatalogView {
+    int getCategoryCount();
+
+    String getCategoryName(int category);
+
+    /**
+     * @return Index of the first element of a category.
+     */
+    int getFirstElement(int category);
+
+    /**
+     * @return Number of elements of a category.
+     */
+    int getElementCount(int category);
+
+    /**
+     * @return Number of elements of the catalog.
+     */
+    int getTotalElementCount();
+
+    int getId(int element);
+
+    /**
+     * @return Description of an element, empty if it has none.
+     */
+    String getDescription(int element);
+
+    /**
+     * @return Sub description of an element, empty if it has none.
+     */
+    String getSubDescription(int element);
+
+    /**
+     * @return Image url of an element, empty if it has none.
+     */
+    String getImageUrl(int element);
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.cpmproto.categorystepfragment.action;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Adapts a {@link CatalogView} to the object model of {@link ActionCategory} and
+ * {@link ActionElement}.
+ */
+public final class CatalogViews {
+    private CatalogViews() {
+    }
+
+    /**
+     * @return A new ActionElement holding an element of the view.
+     */
+    public static ActionElement getElement(CatalogView view, int element) {
+        return new ActionElement(view.getId(element), view.getDescription(element),
+                view.getSubDescription(element), view.getImageUrl(element));
+    }
+
+    /**
+     * Creates the categories of a view. Their element lists are read-only and create an
+     * ActionElement each time an element is accessed, nothing is copied up front.
+     *
+     * @return The categories, in the order of the view.
+     */
+    public static List<ActionCategory> toActionCategories(CatalogView view) {
+        int count = view.getCategoryCount();
+        List<ActionCategory> categories = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            categories.add(new ActionCategory(view.getCategoryName(i), new ElementList(view, i)));
+
+        return categories;
+    }
+
+    /**
+     * Read-only list of the elements of a category, read from the view on access.
+     */
+    private static final class ElementList extends AbstractList<ActionElement> implements RandomAccess {
+        private final CatalogView mView;
+        private final int mFirst;
+        private final int mSize;
+
+        ElementList(CatalogView view, int category) {
+            mView = view;
+            mFirst = view.getFirstElement(category);
+            mSize = view.getElementCount(category);
+        }
+
+        @Override
+        public ActionElement get(int location) {
+            if (location < 0 || location >= mSize)
+                throw new IndexOutOfBoundsException("Element " + location + " of " + mSize);
+
+            return getElement(mView, mFirst + location);
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+    }
+}
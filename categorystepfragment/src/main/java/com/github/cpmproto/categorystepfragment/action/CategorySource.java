@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.github.cpmproto.categorystepfragment.action;
+
+import java.util.List;
+
+/**
+ * Source of the sub categories of an {@link ActionCategory}, for catalogs organized as trees.
+ * The sub categories of a category are requested the first time the user opens it.
+ */
+public interface CategorySource {
+    /**
+     * Loads the sub categories of a category. Called on a background thread.
+     *
+     * @param parent The category being opened.
+     * @return Its sub categories, empty if it has none.
+     */
+    List<ActionCategory> loadChildren(ActionCategory parent);
+}
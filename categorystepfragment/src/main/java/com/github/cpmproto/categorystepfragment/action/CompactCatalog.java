@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.cpmproto.categorystepfragment.action;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Catalog held in flat arrays instead of one ActionElement per element. Element fields are
+ * stored column by column in int arrays, and strings once each in a shared char array: a
+ * 100k elements catalog takes a handful of objects instead of several hundred thousand.
+ * <p/>
+ * Strings are created when they are read, so readers that keep them should cache them. The
+ * {@link ActionElement#getObject()} payload is not stored. Immutable once built.
+ */
+public final class CompactCatalog implements CatalogView {
+    private final String[] mCategoryNames;
+    // mCategoryStarts[i] to mCategoryStarts[i + 1] is the element range of category i.
+    private final int[] mCategoryStarts;
+    private final int[] mIds;
+    private final int[] mDescriptions;
+    private final int[] mSubDescriptions;
+    private final int[] mImageUrls;
+    private final char[] mChars;
+    // mStringStarts[i] to mStringStarts[i + 1] is the range of string i in mChars.
+    private final int[] mStringStarts;
+
+    private CompactCatalog(Builder builder) {
+        mCategoryNames = builder.mCategoryNames.toArray(new String[builder.mCategoryNames.size()]);
+        mCategoryStarts = Arrays.copyOf(builder.mCategoryStarts, mCategoryNames.length + 1);
+        mCategoryStarts[mCategoryNames.length] = builder.mElementCount;
+
+        int count = builder.mElementCount;
+        mIds = Arrays.copyOf(builder.mIds, count);
+        mDescriptions = Arrays.copyOf(builder.mDescriptions, count);
+        mSubDescriptions = Arrays.copyOf(builder.mSubDescriptions, count);
+        mImageUrls = Arrays.copyOf(builder.mImageUrls, count);
+
+        mChars = new char[builder.mChars.length()];
+        builder.mChars.getChars(0, mChars.length, mChars, 0);
+        mStringStarts = Arrays.copyOf(builder.mStringStarts, builder.mStringCount + 1);
+    }
+
+    /**
+     * Copies categories and their elements, in order. Paged categories contribute the elements
+     * loaded so far.
+     */
+    public static CompactCatalog of(List<ActionCategory> categories) {
+        Builder builder = new Builder();
+        for (ActionCategory category : categories) {
+            builder.addCategory(category.getCategory());
+            for (ActionElement actionElement : category.getActionElements()) {
+                builder.addElement(actionElement.getId(), actionElement.getDescription(),
+                        actionElement.getSubDescription(), actionElement.getImageUrl());
+            }
+        }
+        return builder.build();
+    }
+
+    @Override
+    public int getCategoryCount() {
+        return mCategoryNames.length;
+    }
+
+    @Override
+    public String getCategoryName(int category) {
+        return mCategoryNames[category];
+    }
+
+    @Override
+    public int getFirstElement(int category) {
+        return mCategoryStarts[checkCategory(category)];
+    }
+
+    @Override
+    public int getElementCount(int category) {
+        return mCategoryStarts[checkCategory(category) + 1] - mCategoryStarts[category];
+    }
+
+    @Override
+    public int getTotalElementCount() {
+        return mIds.length;
+    }
+
+    @Override
+    public int getId(int element) {
+        return mIds[element];
+    }
+
+    @Override
+    public String getDescription(int element) {
+        return getString(mDescriptions[element]);
+    }
+
+    @Override
+    public String getSubDescription(int element) {
+        return getString(mSubDescriptions[element]);
+    }
+
+    @Override
+    public String getImageUrl(int element) {
+        return getString(mImageUrls[element]);
+    }
+
+    private String getString(int index) {
+        int start = mStringStarts[index];
+        return new String(mChars, start, mStringStarts[index + 1] - start);
+    }
+
+    private int checkCategory(int category) {
+        if (category < 0 || category >= mCategoryNames.length)
+            throw new IndexOutOfBoundsException("Category " + category);
+
+        return category;
+    }
+
+    /**
+     * Appends categories and their elements in order. Elements added belong to the category
+     * added last.
+     */
+    public static final class Builder {
+        private static final int INITIAL_CAPACITY = 64;
+
+        private final List<String> mCategoryNames = new ArrayList<>();
+        private int[] mCategoryStarts = new int[INITIAL_CAPACITY];
+        private int[] mIds = new int[INITIAL_CAPACITY];
+        private int[] mDescriptions = new int[INITIAL_CAPACITY];
+        private int[] mSubDescriptions = new int[INITIAL_CAPACITY];
+        private int[] mImageUrls = new int[INITIAL_CAPACITY];
+        private int mElementCount;
+
+        private final StringBuilder mChars = new StringBuilder();
+        private final Map<String, Integer> mStringIndexes = new HashMap<>();
+        private int[] mStringStarts = new int[INITIAL_CAPACITY];
+        private int mStringCount;
+
+        public Builder addCategory(String name) {
+            int index = mCategoryNames.size();
+            mCategoryNames.add(name != null ? name : "");
+            mCategoryStarts = ensureCapacity(mCategoryStarts, index + 2);
+            mCategoryStarts[index] = mElementCount;
+            return this;
+        }
+
+        /**
+         * @throws IllegalStateException If no category was added yet.
+         */
+        public Builder addElement(int id, String description, String subDescription, String imageUrl) {
+            if (mCategoryNames.isEmpty())
+                throw new IllegalStateException("Add a category first");
+
+            int element = mElementCount++;
+            mIds = ensureCapacity(mIds, mElementCount);
+            mDescriptions = ensureCapacity(mDescriptions, mElementCount);
+            mSubDescriptions = ensureCapacity(mSubDescriptions, mElementCount);
+            mImageUrls = ensureCapacity(mImageUrls, mElementCount);
+
+            mIds[element] = id;
+            mDescriptions[element] = intern(description);
+            mSubDescriptions[element] = intern(subDescription);
+            mImageUrls[element] = intern(imageUrl);
+            return this;
+        }
+
+        public CompactCatalog build() {
+            return new CompactCatalog(this);
+        }
+
+        private int intern(String string) {
+            if (string == null)
+                string = "";
+
+            Integer index = mStringIndexes.get(string);
+            if (index == null) {
+                index = mStringCount++;
+                mStringIndexes.put(string, index);
+                mChars.append(string);
+                mStringStarts = ensureCapacity(mStringStarts, mStringCount + 1);
+                mStringStarts[mStringCount] = mChars.length();
+            }
+            return index;
+        }
+
+        private static int[] ensureCapacity(int[] array, int size) {
+            return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, 2 * array.length));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.github.cpmproto.categorystepfragment.action;
+
+import com.github.cpmproto.categorystepfragment.util.ConcatList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Category showing the elements of other categories one after the other, such as an "All"
+ * category. Its element list is a view over theirs: nothing is copied, whatever the size of
+ * the parts. The parts must be fully loaded and must not change afterwards.
+ */
+public class CompositeActionCategory extends ActionCategory {
+    private final List<ActionCategory> parts;
+
+    /**
+     * @param category Name of the category.
+     * @param parts    Categories whose elements are shown, in order.
+     * @throws IllegalArgumentException If a part is paged from a {@link CatalogSource}.
+     */
+    public CompositeActionCategory(String category, List<ActionCategory> parts) {
+        super(category, concat(category, parts));
+        this.parts = Collections.unmodifiableList(new ArrayList<>(parts));
+    }
+
+    public List<ActionCategory> getParts() {
+        return parts;
+    }
+
+    private static List<ActionElement> concat(String category, List<ActionCategory> parts) {
+        List<List<ActionElement>> elementLists = new ArrayList<>(parts.size());
+        for (ActionCategory part : parts) {
+            if (part.getCatalogSource() != null)
+                throw new IllegalArgumentException("Paged category " + part.getCategory()
+                        + " cannot be part of " + category);
+
+            elementLists.add(part.getActionElements());
+        }
+        return new ConcatList<>(elementLists);
+    }
+}
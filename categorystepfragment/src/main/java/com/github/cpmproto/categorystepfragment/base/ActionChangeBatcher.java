@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.cpmproto.categorystepfragment.base;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
+
+import java.util.Arrays;
+
+/**
+ * Collects the ids of actions that changed and notifies the adapter once per frame. Ids are
+ * resolved to positions when the frame is flushed, so changes posted before a category switch
+ * land on the rows bound at that time. Adjacent positions are merged into a single range change.
+ * Must be used from the main thread.
+ */
+final class ActionChangeBatcher implements Choreographer.FrameCallback {
+    private CategoryActionAdapter mAdapter;
+    private long[] mIds = new long[16];
+    private int[] mPositions = new int[16];
+    private int mCount;
+    private boolean mScheduled;
+
+    /**
+     * @param adapter Adapter to notify, or null to drop pending changes until another is set.
+     */
+    void setAdapter(CategoryActionAdapter adapter) {
+        mAdapter = adapter;
+        if (adapter == null)
+            cancel();
+    }
+
+    void add(long id) {
+        if (mCount == mIds.length)
+            mIds = Arrays.copyOf(mIds, mCount * 2);
+
+        mIds[mCount++] = id;
+        if (!mScheduled) {
+            mScheduled = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    void cancel() {
+        if (mScheduled) {
+            mScheduled = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+        mCount = 0;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mScheduled = false;
+        flush();
+    }
+
+    private void flush() {
+        CategoryActionAdapter adapter = mAdapter;
+        int count = mCount;
+        mCount = 0;
+        if (adapter == null || count == 0)
+            return;
+
+        if (mPositions.length < count)
+            mPositions = new int[mIds.length];
+
+        int resolved = 0;
+        for (int i = 0; i < count; i++) {
+            int position = adapter.getPositionById(mIds[i]);
+            if (position != RecyclerView.NO_POSITION)
+                mPositions[resolved++] = position;
+        }
+        if (resolved == 0)
+            return;
+
+        Arrays.sort(mPositions, 0, resolved);
+
+        int start = mPositions[0];
+        int end = start;
+        for (int i = 1; i < resolved; i++) {
+            int position = mPositions[i];
+            if (position <= end + 1) {
+                end = Math.max(end, position);
+                continue;
+            }
+            adapter.notifyItemRangeChanged(start, end - start + 1);
+            start = end = position;
+        }
+        adapter.notifyItemRangeChanged(start, end - start + 1);
+    }
+}
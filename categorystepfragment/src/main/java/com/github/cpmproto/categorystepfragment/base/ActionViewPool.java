@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.github.cpmproto.categorystepfragment.base;
+
+import android.app.Activity;
+import android.support.annotation.LayoutRes;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.view.View;
+
+import com.github.cpmproto.categorystepfragment.R;
+
+import java.util.ArrayList;
+
+/**
+ * Inflated GuidedAction rows shared by the action, sub action and button grids of every
+ * {@link GuidedStepListFragment} of an activity. Rows a grid no longer keeps are given to the
+ * pool, and the next grid creating a row of the same layout takes one instead of inflating it,
+ * see {@link GuidedStepListFragment#setSharedViewPool(boolean)}.
+ * <p/>
+ * Rows are told apart by the layout they were inflated from, so fragments sharing the pool must
+ * use the same theme for their actions. The pool lives as long as its activity and must be used
+ * from the main thread.
+ */
+public final class ActionViewPool {
+    private static final int DEFAULT_MAX_RECYCLED_VIEWS = 10;
+
+    private final SparseArray<ArrayList<View>> mScrap = new SparseArray<>();
+    private final SparseIntArray mMaxRecycledViews = new SparseIntArray();
+
+    private ActionViewPool() {
+    }
+
+    /**
+     * @return The pool of the activity, created on first use.
+     */
+    public static ActionViewPool get(Activity activity) {
+        // Kept on the decor view so it goes away with the activity and its views.
+        View decorView = activity.getWindow().getDecorView();
+        ActionViewPool pool = (ActionViewPool) decorView.getTag(R.id.category_step_action_view_pool);
+        if (pool == null) {
+            pool = new ActionViewPool();
+            decorView.setTag(R.id.category_step_action_view_pool, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Sets how many idle rows of a layout the pool keeps. Extra rows are dropped.
+     *
+     * @param layoutId Layout of the rows, as returned by
+     *                 GuidedActionsStylist.onProvideItemLayoutId(int) for their view type.
+     * @param max      Maximum number of idle rows, 0 to stop pooling the layout.
+     */
+    public void setMaxRecycledViews(@LayoutRes int layoutId, int max) {
+        mMaxRecycledViews.put(layoutId, Math.max(0, max));
+        ArrayList<View> scrap = mScrap.get(layoutId);
+        while (scrap != null && scrap.size() > max)
+            scrap.remove(scrap.size() - 1);
+    }
+
+    public int getMaxRecycledViews(@LayoutRes int layoutId) {
+        return mMaxRecycledViews.get(layoutId, DEFAULT_MAX_RECYCLED_VIEWS);
+    }
+
+    /**
+     * @return Number of idle rows of the layout.
+     */
+    public int getRecycledViewCount(@LayoutRes int layoutId) {
+        ArrayList<View> scrap = mScrap.get(layoutId);
+        return scrap != null ? scrap.size() : 0;
+    }
+
+    public void clear() {
+        mScrap.clear();
+    }
+
+    /**
+     * @return An idle row of the layout, or null if the row must be inflated.
+     */
+    View obtain(@LayoutRes int layoutId) {
+        ArrayList<View> scrap = mScrap.get(layoutId);
+        if (scrap == null || scrap.isEmpty())
+            return null;
+
+        return scrap.remove(scrap.size() - 1);
+    }
+
+    /**
+     * Keeps a row detached from its grid, unless the pool has enough rows of its layout.
+     */
+    void recycle(@LayoutRes int layoutId, View view) {
+        if (view.getParent() != null)
+            return;
+
+        ArrayList<View> scrap = mScrap.get(layoutId);
+        if (scrap == null) {
+            scrap = new ArrayList<>();
+            mScrap.put(layoutId, scrap);
+        }
+        if (scrap.size() < getMaxRecycledViews(layoutId))
+            scrap.add(view);
+    }
+}
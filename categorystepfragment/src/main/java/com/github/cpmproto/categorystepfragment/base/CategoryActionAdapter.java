@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.cpmproto.categorystepfragment.base;
+
+import android.support.v17.leanback.widget.GuidedAction;
+import android.support.v17.leanback.widget.GuidedActionAdapter;
+import android.support.v17.leanback.widget.GuidedActionsStylist;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+
+import com.github.cpmproto.categorystepfragment.util.LongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * GuidedActionAdapter that owns the list it binds from. {@link GuidedActionAdapter} only offers
+ * {@link #setActions(List)}, which rebinds every row; this adapter can also take a new list
+ * together with the diff against the current one and dispatch targeted notifications. The list
+ * of the super class is only refreshed by a full reset, so everything reading the actions,
+ * including the handling of checked actions, goes through the list of this adapter.
+ */
+class CategoryActionAdapter extends GuidedActionAdapter {
+    private final GuidedActionsStylist mStylist;
+    private final List<GuidedAction> mItems = new ArrayList<>();
+    private LongIntHashMap mPositions;
+    private RecyclerView mRecyclerView;
+    private int mBindCount;
+
+    CategoryActionAdapter(List<GuidedAction> actions, ClickListener clickListener,
+                          FocusListener focusListener, GuidedActionsStylist presenter,
+                          boolean isSubAdapter) {
+        super(actions, clickListener, focusListener, presenter, isSubAdapter);
+        mStylist = presenter;
+        if (actions != null)
+            mItems.addAll(actions);
+    }
+
+    @Override
+    public void setActions(List<GuidedAction> actions) {
+        setItems(actions);
+        super.setActions(actions);
+    }
+
+    /**
+     * Replaces the actions and notifies only the rows described by the diff.
+     *
+     * @param actions The new actions.
+     * @param diff    Diff from the current actions to the new ones.
+     */
+    void setActions(List<GuidedAction> actions, DiffUtil.DiffResult diff) {
+        setItems(actions);
+        diff.dispatchUpdatesTo(this);
+    }
+
+    private void setItems(List<GuidedAction> actions) {
+        mItems.clear();
+        mItems.addAll(actions);
+        mPositions = null;
+    }
+
+    /**
+     * Appends actions to the end of the list and notifies them as a single range insert.
+     */
+    void appendActions(List<GuidedAction> added) {
+        int start = mItems.size();
+        mItems.addAll(added);
+        if (mPositions != null) {
+            for (int i = start, size = mItems.size(); i < size; i++)
+                mPositions.putIfAbsent(mItems.get(i).getId(), i);
+        }
+        notifyItemRangeInserted(start, added.size());
+    }
+
+    /**
+     * Replaces the action of a row and notifies only that row.
+     */
+    void setAction(int position, GuidedAction action) {
+        GuidedAction old = mItems.set(position, action);
+        if (mPositions != null && old.getId() != action.getId()) {
+            if (mPositions.get(old.getId(), RecyclerView.NO_POSITION) == position)
+                mPositions.remove(old.getId(), RecyclerView.NO_POSITION);
+
+            int existing = mPositions.get(action.getId(), RecyclerView.NO_POSITION);
+            if (existing == RecyclerView.NO_POSITION || existing > position)
+                mPositions.put(action.getId(), position);
+        }
+        notifyItemChanged(position);
+    }
+
+    /**
+     * @param id Id of an action.
+     * @return Position of the first bound action with that id, or {@link RecyclerView#NO_POSITION}.
+     */
+    int getPositionById(long id) {
+        if (mPositions == null) {
+            mPositions = new LongIntHashMap(mItems.size());
+            for (int i = 0, size = mItems.size(); i < size; i++)
+                mPositions.putIfAbsent(mItems.get(i).getId(), i);
+        }
+        return mPositions.get(id, RecyclerView.NO_POSITION);
+    }
+
+    /**
+     * @return Number of rows bound since the last {@link #resetBindCount()}.
+     */
+    int getBindCount() {
+        return mBindCount;
+    }
+
+    void resetBindCount() {
+        mBindCount = 0;
+    }
+
+    @Override
+    public List<GuidedAction> getActions() {
+        return new ArrayList<>(mItems);
+    }
+
+    @Override
+    public int getCount() {
+        return mItems.size();
+    }
+
+    @Override
+    public GuidedAction getItem(int position) {
+        return mItems.get(position);
+    }
+
+    @Override
+    public int indexOf(GuidedAction action) {
+        return mItems.indexOf(action);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mItems.size();
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return mStylist.getItemViewType(mItems.get(position));
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        mRecyclerView = recyclerView;
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        mRecyclerView = null;
+    }
+
+    /**
+     * Checks the action of the holder and unchecks the other actions of its check set, like
+     * {@link GuidedActionAdapter} does over its own list. Unchecked rows that are not laid out
+     * are notified, so a view kept aside is bound again before it is shown.
+     */
+    @Override
+    public void handleCheckedActions(GuidedActionsStylist.ViewHolder avh) {
+        GuidedAction action = avh.getAction();
+        int checkSetId = action.getCheckSetId();
+        if (mRecyclerView == null || checkSetId == GuidedAction.NO_CHECK_SET)
+            return;
+
+        if (checkSetId != GuidedAction.CHECKBOX_CHECK_SET_ID) {
+            for (int i = 0, size = mItems.size(); i < size; i++) {
+                GuidedAction other = mItems.get(i);
+                if (other == action || other.getCheckSetId() != checkSetId || !other.isChecked())
+                    continue;
+
+                other.setChecked(false);
+                GuidedActionsStylist.ViewHolder holder =
+                        (GuidedActionsStylist.ViewHolder) mRecyclerView.findViewHolderForLayoutPosition(i);
+                if (holder != null)
+                    mStylist.onAnimateItemChecked(holder, false);
+                else
+                    notifyItemChanged(i);
+            }
+        }
+
+        if (!action.isChecked()) {
+            action.setChecked(true);
+            mStylist.onAnimateItemChecked(avh, true);
+        } else if (checkSetId == GuidedAction.CHECKBOX_CHECK_SET_ID) {
+            action.setChecked(false);
+            mStylist.onAnimateItemChecked(avh, false);
+        }
+    }
+
+    @Override
+    public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+        if (position >= mItems.size())
+            return;
+
+        mBindCount++;
+        mStylist.onBindViewHolder((GuidedActionsStylist.ViewHolder) holder, mItems.get(position));
+    }
+
+    /**
+     * Diff callback matching actions by id. Actions are shared between the lists of a fragment,
+     * so the same instance is unchanged unless it is the header, whose description follows the
+     * selected category.
+     */
+    static final class ActionDiffCallback extends DiffUtil.Callback {
+        private final List<GuidedAction> mOldActions;
+        private final List<GuidedAction> mNewActions;
+        private final GuidedAction mHeader;
+
+        ActionDiffCallback(List<GuidedAction> oldActions, List<GuidedAction> newActions,
+                           GuidedAction header) {
+            mOldActions = oldActions;
+            mNewActions = newActions;
+            mHeader = header;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldActions.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewActions.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldActions.get(oldItemPosition).getId() == mNewActions.get(newItemPosition).getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            GuidedAction oldAction = mOldActions.get(oldItemPosition);
+            return oldAction == mNewActions.get(newItemPosition) && oldAction != mHeader;
+        }
+    }
+}
@@ -25,8 +25,10 @@ public class Element extends Fragment {
 
     protected static final String TAG_LEAN_BACK_ACTIONS_FRAGMENT = "leanBackGuidedStepListFragment";
     protected static final String EXTRA_ACTION_SELECTED_INDEX = "selectedIndex";
-    protected static final String EXTRA_ACTION_PREFIX = "action_";
     protected static final String EXTRA_BUTTON_ACTION_PREFIX = "buttonaction_";
+    protected static final String EXTRA_CATEGORY_KEY = "categoryKey";
+    protected static final String EXTRA_FOCUSED_ACTION_ID = "focusedActionId";
+    protected static final String EXTRA_SCROLL_OFFSET = "scrollOffset";
     protected static final String TAG = "GuidedStepListFragment";
     protected static final String ENTRY_NAME_REPLACE = "GuidedStepDefault";
     protected static final boolean IS_FRAMEWORK_FRAGMENT = true;
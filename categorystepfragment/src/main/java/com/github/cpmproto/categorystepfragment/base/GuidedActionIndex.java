@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.cpmproto.categorystepfragment.base;
+
+import android.support.v17.leanback.widget.GuidedAction;
+
+import com.github.cpmproto.categorystepfragment.action.GuidedActionList;
+import com.github.cpmproto.categorystepfragment.util.LongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Key index over the categories of a {@link GuidedStepListFragment}. Each category is reachable
+ * by key in constant time and keeps the list shown for it (the category header followed by its
+ * items) once it has been composed, so repeated lookups do not allocate. Action positions are
+ * indexed by id per category, and only the category that changed is indexed again.
+ */
+final class GuidedActionIndex {
+    private static final int FIRST_ELEMENT = 0;
+    private static final int NOT_FOUND = -1;
+
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private Entry mFirstEntry;
+    private List<GuidedActionList> mActions = Collections.emptyList();
+    private String mFirstKey = "";
+
+    /**
+     * Rebuilds the index for the given categories. The first category with a given key wins,
+     * like the linear lookup it replaces.
+     *
+     * @param actions  Categories of the fragment.
+     * @param firstKey Key of the category that already holds the header as its first action.
+     */
+    void setActions(List<GuidedActionList> actions, String firstKey) {
+        mEntries.clear();
+        mActions = actions != null ? actions : Collections.<GuidedActionList>emptyList();
+        mFirstKey = firstKey != null ? firstKey : "";
+        mFirstEntry = mActions.isEmpty() ? null : new Entry(mActions.get(FIRST_ELEMENT));
+        if (mFirstEntry != null)
+            mFirstEntry.composed = actionsOf(mFirstEntry.list);
+
+        for (int i = 0, size = mActions.size(); i < size; i++) {
+            GuidedActionList guidedActionList = mActions.get(i);
+            if (!mEntries.containsKey(guidedActionList.getKey()))
+                mEntries.put(guidedActionList.getKey(), new Entry(guidedActionList));
+        }
+    }
+
+    /**
+     * Indexes one more category, leaving the others as they are. A key already indexed keeps its
+     * category.
+     */
+    void add(GuidedActionList guidedActionList) {
+        if (!mEntries.containsKey(guidedActionList.getKey()))
+            mEntries.put(guidedActionList.getKey(), new Entry(guidedActionList));
+    }
+
+    boolean contains(String key) {
+        return mEntries.containsKey(key);
+    }
+
+    GuidedActionList getActionList(String key) {
+        Entry entry = mEntries.get(key);
+        return entry != null ? entry.list : null;
+    }
+
+    /**
+     * @return The action shown on top of every category, or null if there is none.
+     */
+    GuidedAction getHeader() {
+        if (mActions.isEmpty())
+            return null;
+
+        List<GuidedAction> first = mActions.get(FIRST_ELEMENT).getActions();
+        return first == null || first.isEmpty() ? null : first.get(FIRST_ELEMENT);
+    }
+
+    /**
+     * Returns the list shown for a category, composing and caching it on first use.
+     *
+     * @param key Key of the category.
+     * @return The composed list, or an empty list if the key is unknown.
+     */
+    List<GuidedAction> getComposedActions(String key) {
+        Entry entry = entryOf(key);
+        return entry != null ? composedOf(entry) : Collections.<GuidedAction>emptyList();
+    }
+
+    /**
+     * Finds the position of an action in the list shown for a category. The id index of the
+     * category is built on first use.
+     *
+     * @param key Key of the category, or null/empty for the uncomposed first category.
+     * @param id  Id of the action.
+     * @return Position of the first action with the id, or -1 if not found.
+     */
+    int findPosition(String key, long id) {
+        Entry entry = entryOf(key);
+        if (entry == null)
+            return NOT_FOUND;
+
+        if (entry.positions == null) {
+            List<GuidedAction> composed = composedOf(entry);
+            LongIntHashMap positions = new LongIntHashMap(composed.size());
+            for (int i = 0, size = composed.size(); i < size; i++)
+                positions.putIfAbsent(composed.get(i).getId(), i);
+
+            entry.positions = positions;
+        }
+        return entry.positions.get(id, NOT_FOUND);
+    }
+
+    /**
+     * Drops the cached list and id index of a category so they are built again on next lookup.
+     * Single actions replaced or appended are better reported with {@link #replace} and
+     * {@link #append}, which keep them.
+     *
+     * @param key Key of the category whose actions changed.
+     */
+    void invalidate(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry != null) {
+            entry.composed = null;
+            entry.positions = null;
+        }
+
+        if (mFirstEntry != null && mFirstEntry.list.getKey().equals(key)) {
+            mFirstEntry.composed = actionsOf(mFirstEntry.list);
+            mFirstEntry.positions = null;
+        }
+    }
+
+    /**
+     * Extends the cached list and id index of a category with actions appended to the end of
+     * its {@link GuidedActionList}.
+     *
+     * @param key   Key of the category.
+     * @param added Actions that were appended to the category.
+     */
+    void append(String key, List<GuidedAction> added) {
+        Entry entry = mEntries.get(key);
+        if (entry != null)
+            appendTo(entry, added);
+
+        if (mFirstEntry != null && mFirstEntry != entry && mFirstEntry.list.getKey().equals(key))
+            appendTo(mFirstEntry, added);
+    }
+
+    /**
+     * Replaces an action in the cached list and id index of a category, which are kept. Ids are
+     * expected to be unique within a category.
+     *
+     * @param key      Key of the category.
+     * @param position Position of the action in the {@link GuidedActionList} of the category,
+     *                 where it was already replaced.
+     * @param old      The action that was replaced.
+     * @param action   The action that replaced it.
+     */
+    void replace(String key, int position, GuidedAction old, GuidedAction action) {
+        Entry entry = mEntries.get(key);
+        if (entry != null)
+            replaceIn(entry, position, old, action);
+
+        if (mFirstEntry != null && mFirstEntry != entry && mFirstEntry.list.getKey().equals(key))
+            replaceIn(mFirstEntry, position, old, action);
+    }
+
+    /**
+     * @return True if both keys resolve to the same category.
+     */
+    boolean isSameCategory(String key, String other) {
+        Entry entry = entryOf(key);
+        Entry otherEntry = entryOf(other);
+        return entry != null && otherEntry != null && entry.list == otherEntry.list;
+    }
+
+    private void appendTo(Entry entry, List<GuidedAction> added) {
+        if (entry.composed == null)
+            return;
+
+        // The raw list of the first category already holds the appended actions.
+        if (entry.composed != entry.list.getActions())
+            entry.composed.addAll(added);
+
+        if (entry.positions != null) {
+            int size = entry.composed.size();
+            for (int i = size - added.size(); i < size; i++)
+                entry.positions.putIfAbsent(entry.composed.get(i).getId(), i);
+        }
+    }
+
+    private void replaceIn(Entry entry, int position, GuidedAction old, GuidedAction action) {
+        if (entry.composed == null)
+            return;
+
+        // The raw list of the first category already holds the new action.
+        List<GuidedAction> actions = entry.list.getActions();
+        int composedPosition = position;
+        if (entry.composed != actions) {
+            composedPosition += entry.composed.size() - (actions != null ? actions.size() : 0);
+            entry.composed.set(composedPosition, action);
+        }
+
+        if (entry.positions != null && old.getId() != action.getId()) {
+            if (entry.positions.get(old.getId(), NOT_FOUND) == composedPosition)
+                entry.positions.remove(old.getId(), NOT_FOUND);
+
+            int existing = entry.positions.get(action.getId(), NOT_FOUND);
+            if (existing == NOT_FOUND || existing > composedPosition)
+                entry.positions.put(action.getId(), composedPosition);
+        }
+    }
+
+    private Entry entryOf(String key) {
+        return key == null || key.isEmpty() ? mFirstEntry : mEntries.get(key);
+    }
+
+    private List<GuidedAction> composedOf(Entry entry) {
+        if (entry.composed == null)
+            entry.composed = compose(entry.list);
+
+        return entry.composed;
+    }
+
+    private static List<GuidedAction> actionsOf(GuidedActionList guidedActionList) {
+        List<GuidedAction> actions = guidedActionList.getActions();
+        return actions != null ? actions : new ArrayList<GuidedAction>();
+    }
+
+    private List<GuidedAction> compose(GuidedActionList guidedActionList) {
+        // Cached lists are extended in place by append, so they must be mutable.
+        List<GuidedAction> actions = guidedActionList.getActions();
+        if (actions == null)
+            return new ArrayList<>();
+
+        if (guidedActionList.getKey().equals(mFirstKey))
+            return actions;
+
+        GuidedAction header = getHeader();
+        List<GuidedAction> composed = new ArrayList<>(actions.size() + 1);
+        if (header != null)
+            composed.add(header);
+
+        composed.addAll(actions);
+        return composed;
+    }
+
+    private static final class Entry {
+        final GuidedActionList list;
+        List<GuidedAction> composed;
+        LongIntHashMap positions;
+
+        Entry(GuidedActionList list) {
+            this.list = list;
+        }
+    }
+}
@@ -18,8 +18,6 @@
 package com.github.cpmproto.categorystepfragment.base;
 
 import android.animation.Animator;
-import android.animation.AnimatorListenerAdapter;
-import android.animation.AnimatorSet;
 import android.app.Activity;
 import android.app.Fragment;
 import android.app.FragmentManager;
@@ -36,9 +34,12 @@ import android.support.v17.leanback.widget.GuidedAction;
 import android.support.v17.leanback.widget.GuidedActionAdapter;
 import android.support.v17.leanback.widget.GuidedActionAdapterGroup;
 import android.support.v17.leanback.widget.GuidedActionsStylist;
+import android.support.v17.leanback.widget.VerticalGridView;
 import android.support.v17.leanback.widget.ViewHolderTask;
 import android.support.v4.app.ActivityCompat;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.util.Log;
 import android.util.TypedValue;
 import android.view.ContextThemeWrapper;
@@ -46,6 +47,7 @@ import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.LinearLayout;
 
 import com.github.cpmproto.categorystepfragment.R;
@@ -53,9 +55,17 @@ import com.github.cpmproto.categorystepfragment.action.GuidedActionList;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
-public class GuidedStepListFragment extends Element implements GuidedActionAdapter.FocusListener, OnKeyPress {
+public class GuidedStepListFragment extends Element implements GuidedActionAdapter.FocusListener, OnKeyPress,
+        OnFastScroll {
     private static final int FIRT_ELEMENT = 0;
+    // A fast scroll jumps one page, doubled every FAST_SCROLL_REPEATS_PER_STEP repeats up to 8.
+    private static final int FAST_SCROLL_REPEATS_PER_STEP = 10;
+    private static final int FAST_SCROLL_MAX_SHIFT = 3;
     /**
      * Fragment argument name for UI style.  The argument value is persisted in fragment state and
      * used to select fragment transition. The value is initially {@link #UI_STYLE_ENTRANCE} and
@@ -115,6 +125,19 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
      */
     public static final int SLIDE_FROM_SIDE = 0;
 
+    /**
+     * Default value for {@link #setCategorySwitchMode(int)}. Switching category replaces the
+     * whole action list and rebinds every visible row.
+     */
+    public static final int CATEGORY_SWITCH_RESET = 0;
+
+    /**
+     * Switching category computes a diff by {@link GuidedAction#getId()} between the old and new
+     * action lists on a background thread, then notifies only the rows that were inserted,
+     * removed, moved or changed. Rows shared by both categories keep their views and state.
+     */
+    public static final int CATEGORY_SWITCH_DIFF = 1;
+
     /**
      * Find GuidedAction by Id.
      *
@@ -122,8 +145,8 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
      * @return GuidedAction object or null if not found.
      */
     public GuidedAction findActionById(long id, String key) {
-        int index = findActionPositionById(id, key);
-        return index >= 0 ? getActionsByKey(key).get(index) : null;
+        int index = mIndex.findPosition(key, id);
+        return index >= 0 ? mIndex.getComposedActions(key).get(index) : null;
     }
 
     /**
@@ -138,40 +161,66 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
     }
 
     /**
-     * Find GuidedAction position in array by Id.
+     * Notify an action has changed and update its UI on the next frame. Changes posted within
+     * the same frame are merged, and the id is resolved to the position the action has in the
+     * list shown when the frame is drawn.
+     *
+     * @param id Id of the GuidedAction that changed.
+     */
+    public void notifyActionChangedById(long id) {
+        if (mAdapter != null) {
+            mChangeBatcher.add(id);
+        }
+    }
+
+    /**
+     * Find GuidedAction position in array by Id. Positions are indexed per category, so the
+     * lookup takes constant time.
      *
      * @param id Id of the action to search.
      * @return position of GuidedAction object in array or -1 if not found.
      */
     public int findActionPositionById(long id, String key) {
-        List<GuidedAction> guidedActionLists = getActionsByKey(key);
-
-        if (guidedActionLists != null) {
-            for (int i = 0; i < guidedActionLists.size(); i++) {
-                GuidedAction action = guidedActionLists.get(i);
-                if (action.getId() == id) {
-                    return i;
-                }
-            }
-        }
-        return -1;
+        return mIndex.findPosition(key, id);
     }
 
 
     public static final int UI_STYLE_ACTIVITY_ROOT = 2;
 
     private ContextThemeWrapper mThemeWrapper;
+    private Activity mThemeActivity;
+    private FutureTask<Hierarchy> mWarmUp;
     private GuidanceStylist mGuidanceStylist;
     private GuidedActionsStylist mActionsStylist;
     private GuidedActionsStylist mButtonActionsStylist;
     private int entranceTransitionType = SLIDE_FROM_SIDE;
-    private GuidedActionAdapter mAdapter;
+    private CategoryActionAdapter mAdapter;
     private List<GuidedActionList> mActions = new ArrayList<GuidedActionList>();
-    private GuidedActionAdapter mSubAdapter;
+    private final GuidedActionIndex mIndex = new GuidedActionIndex();
+    private final ActionChangeBatcher mChangeBatcher = new ActionChangeBatcher();
+    private CategoryActionAdapter mSubAdapter;
+    private GuidedAction mSubActionsParent;
     private List<GuidedAction> mButtonActions = new ArrayList<GuidedAction>();
     private GuidedActionAdapter mButtonAdapter;
     private GuidedActionAdapterGroup mAdapterGroup;
     private int mSelectedIndex = -1;
+    private int mCategorySwitchMode = CATEGORY_SWITCH_RESET;
+    private int mSwitchGeneration;
+    private boolean mSwitchPending;
+    private boolean mAsyncActionsBuild;
+    private boolean mSharedViewPool;
+    private int mBuildGeneration;
+    private String mCurrentKey;
+    private long mFocusedActionId = GuidedAction.NO_ID;
+    private int mScrollOffset;
+    private boolean mRestoreFocusPending;
+    private final StepMetrics mMetrics = new StepMetrics();
+    private final StepTransitions mTransitions = new StepTransitions();
+    private long mCreateNanos;
+    private long mSwitchStartNanos;
+    private String mSwitchTraceKey;
+    private boolean mSwitchTraceArmed;
+    private boolean mFastScrolling;
     private GuidedStepRootLayout rootLayout;
 
     public GuidedStepListFragment() {
@@ -182,11 +231,20 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
     }
 
     public GuidedActionsStylist onCreateActionsStylist() {
-        return new GuidedActionsStylist();
+        return new PooledActionsStylist();
+    }
+
+    /**
+     * Returns the GuidedActionsStylist that interacts with the actions for this fragment.
+     *
+     * @return The GuidedActionsStylist for this fragment.
+     */
+    public GuidedActionsStylist getGuidedActionsStylist() {
+        return mActionsStylist;
     }
 
     public GuidedActionsStylist onCreateButtonActionsStylist() {
-        GuidedActionsStylist stylist = new GuidedActionsStylist();
+        GuidedActionsStylist stylist = new PooledActionsStylist();
         stylist.setAsButtonActions();
         return stylist;
     }
@@ -467,27 +525,26 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
 
     @Override
     public void onKeyPressLeft() {
-        try {
-            final View conteintView = getView();
-
-            conteintView.animate()
-                    .translationX(-conteintView.getWidth())
-                    .setDuration(800)
-                    .setListener(new AnimatorListenerAdapter() {
-                        @Override
-                        public void onAnimationStart(Animator animation) {
-                            super.onAnimationStart(animation);
-                        }
-
-                        @Override
-                        public void onAnimationEnd(Animator animation) {
-                            super.onAnimationEnd(animation);
-                            conteintView.setVisibility(View.GONE);
-                        }
-                    });
-        } catch (Exception ex) {
-            ex.printStackTrace();
-        }
+        View contentView = getView();
+        if (contentView != null)
+            mTransitions.slide(contentView, -contentView.getWidth(), true);
+    }
+
+    /**
+     * Slides the content back in after {@link #onKeyPressLeft()}, reversing the slide out from
+     * where it is if it is still running.
+     */
+    public void slideContentIn() {
+        View contentView = getView();
+        if (contentView != null)
+            mTransitions.slide(contentView, 0, false);
+    }
+
+    /**
+     * @return The transitions of this step, to configure their durations.
+     */
+    public StepTransitions getTransitions() {
+        return mTransitions;
     }
 
     @Override
@@ -496,6 +553,57 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
         rootLayout.setOnSubcategoryfocus(false);
     }
 
+    /**
+     * Jumps the selection of the actions grid by whole pages while a D-pad key is held down:
+     * one page at first, then two, four and eight as the repeats go on. Each jump only binds
+     * the rows it lands on, and repeats coming while the grid is still laying out the previous
+     * jump are dropped, so the selection stops where it is when the key is released.
+     */
+    @Override
+    public boolean onFastScroll(int direction, int repeats) {
+        VerticalGridView gridView = mActionsStylist.getActionsGridView();
+        if (mAdapter == null || gridView == null || !gridView.hasFocus() || mAdapter.getItemCount() == 0)
+            return false;
+
+        if (!mFastScrolling) {
+            mFastScrolling = true;
+            onFastScrollChanged(true);
+        }
+        if (gridView.isLayoutRequested())
+            return true;
+
+        int page = Math.max(1, gridView.getChildCount() - 1);
+        int pages = 1 << Math.min(FAST_SCROLL_MAX_SHIFT, repeats / FAST_SCROLL_REPEATS_PER_STEP);
+        int position = gridView.getSelectedPosition() + direction * page * pages;
+        gridView.setSelectedPosition(Math.max(0, Math.min(mAdapter.getItemCount() - 1, position)));
+        return true;
+    }
+
+    @Override
+    public void onFastScrollEnd() {
+        if (!mFastScrolling)
+            return;
+
+        mFastScrolling = false;
+        onFastScrollChanged(false);
+    }
+
+    /**
+     * @return True while the actions grid is fast scrolled with a held D-pad key.
+     */
+    public boolean isFastScrolling() {
+        return mFastScrolling;
+    }
+
+    /**
+     * Called when a fast scroll of the actions grid starts and ends. Subclasses pause work
+     * done for every row scrolled past, such as loading icons, until it ends.
+     *
+     * @param fastScrolling True when the fast scroll starts.
+     */
+    protected void onFastScrollChanged(boolean fastScrolling) {
+    }
+
     /**
      * @hide
      */
@@ -592,10 +700,16 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
         return -1;
     }
 
-    private void resolveTheme() {
+    private void resolveTheme(Activity activity) {
+        // The theme is resolved once per activity, and kept when the view is created again.
+        if (activity == mThemeActivity)
+            return;
+
+        mThemeActivity = activity;
+        mThemeWrapper = null;
+
         // Look up the guidedStepTheme in the currently specified theme.  If it exists,
         // replace the theme with its value.
-        Activity activity = getActivity();
         int theme = onProvideTheme();
         if (theme == -1 && !isGuidedStepTheme(activity)) {
             // Look up the guidedStepTheme in the activity's currently specified theme.  If it
@@ -638,6 +752,107 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
         }
     }
 
+    /**
+     * Inflates the root layout and the views of the given action stylists with an inflater that
+     * already carries the theme. Does not touch the fragment, so it can run on a background thread.
+     */
+    private static Hierarchy inflateHierarchy(Activity activity, LayoutInflater inflater, ViewGroup container,
+                                              GuidedActionsStylist actionsStylist,
+                                              GuidedActionsStylist buttonActionsStylist) {
+        GuidedStepRootLayout root = (GuidedStepRootLayout) inflater.inflate(R.layout.lb_guidedstep_fragment,
+                container, false);
+        ViewGroup actionContainer = (ViewGroup) root.findViewById(R.id.action_fragment);
+
+        View actionsView = actionsStylist.onCreateView(inflater, actionContainer);
+        actionContainer.addView(actionsView);
+
+        View buttonActionsView = buttonActionsStylist.onCreateView(inflater, actionContainer);
+        actionContainer.addView(buttonActionsView);
+
+        return new Hierarchy(activity, root, buttonActionsView, actionsStylist, buttonActionsStylist);
+    }
+
+    /**
+     * Inflates the view of this fragment on a background thread ahead of time, for example
+     * while the home screen is shown, so {@link #onCreateView} only has to bind it. Views are
+     * inflated with the theme of the activity, which must be the one the fragment is added to.
+     * Does nothing once the view was created.
+     * <p/>
+     * Views whose constructor needs a Looper cannot be inflated in the background. The view is
+     * then inflated on the main thread as usual. Must be called on the main thread.
+     *
+     * @param activity Activity the fragment is going to be added to.
+     */
+    public void warmUp(final Activity activity) {
+        if (mWarmUp != null || getView() != null)
+            return;
+
+        // The theme is resolved here, the background only reads the wrapper. The inflater of the
+        // activity is shared with the main thread and is not thread safe, the background works
+        // with its own copy.
+        resolveTheme(activity);
+        final LayoutInflater inflater = LayoutInflater.from(activity)
+                .cloneInContext(mThemeWrapper != null ? mThemeWrapper : activity);
+
+        // The warm up inflates into stylists of its own, which the fragment adopts only if it
+        // uses the result. One that is dropped while running cannot touch the views shown.
+        final GuidedActionsStylist actionsStylist = onCreateActionsStylist();
+        final GuidedActionsStylist buttonActionsStylist = onCreateButtonActionsStylist();
+        mWarmUp = new FutureTask<>(new Callable<Hierarchy>() {
+            @Override
+            public Hierarchy call() {
+                return inflateHierarchy(activity, inflater, null, actionsStylist, buttonActionsStylist);
+            }
+        });
+        StepExecutors.background().execute(mWarmUp);
+    }
+
+    /**
+     * @return The warmed up view if it is ready, or null if it must be inflated here. A warm up
+     * still running is cancelled rather than waited for.
+     */
+    private Hierarchy takeWarmUp() {
+        FutureTask<Hierarchy> warmUp = mWarmUp;
+        mWarmUp = null;
+        if (warmUp == null)
+            return null;
+
+        if (!warmUp.isDone()) {
+            warmUp.cancel(false);
+            return null;
+        }
+
+        try {
+            Hierarchy hierarchy = warmUp.get();
+            return hierarchy.activity == getActivity() ? hierarchy : null;
+        } catch (CancellationException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Inflating in the background failed", e.getCause());
+            return null;
+        }
+    }
+
+    private static final class Hierarchy {
+        final Activity activity;
+        final GuidedStepRootLayout root;
+        final View buttonActionsView;
+        final GuidedActionsStylist actionsStylist;
+        final GuidedActionsStylist buttonActionsStylist;
+
+        Hierarchy(Activity activity, GuidedStepRootLayout root, View buttonActionsView,
+                  GuidedActionsStylist actionsStylist, GuidedActionsStylist buttonActionsStylist) {
+            this.activity = activity;
+            this.root = root;
+            this.buttonActionsView = buttonActionsView;
+            this.actionsStylist = actionsStylist;
+            this.buttonActionsStylist = buttonActionsStylist;
+        }
+    }
+
     /**
      * Returns true if allows focus out of start edge of GuidedStepListFragment, false otherwise.
      * Default value is false, the reason is to disable FocusFinder to find focusable views
@@ -673,6 +888,7 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
      * @see GuidedAction#getSubActions()
      */
     public void collapseSubActions() {
+        mTransitions.endExpand();
         mActionsStylist.setExpandedViewHolder(null);
     }
 
@@ -689,10 +905,17 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
         if (actionPosition < FIRT_ELEMENT) {
             return;
         }
+        // Clicks repeated while the row scrolls into place or expands would queue more expansions.
+        if (mActionsStylist.isInExpandTransition() || mActionsStylist.getExpandedAction() == action
+                || !mTransitions.startExpand(action)) {
+            return;
+        }
+        mSubActionsParent = action;
         mActionsStylist.getActionsGridView().setSelectedPositionSmooth(actionPosition,
                 new ViewHolderTask() {
                     @Override
                     public void run(RecyclerView.ViewHolder vh) {
+                        mTransitions.endExpand();
                         rootLayout.setOnSubcategoryfocus(true);
                         GuidedActionsStylist.ViewHolder avh = (GuidedActionsStylist.ViewHolder) vh;
                         mActionsStylist.setExpandedViewHolder(avh);
@@ -713,6 +936,61 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
         return true;
     }
 
+    /**
+     * Maps a sub action of the category chooser to the key of the category it selects. The
+     * default uses the text of the action, which is the category title.
+     *
+     * @param subAction The chosen sub action.
+     * @return Key of the category to show, or null if the action does not select a category
+     * and the one shown stays.
+     */
+    @Nullable
+    public String onProvideCategoryKey(GuidedAction subAction) {
+        return subAction.toString();
+    }
+
+    /**
+     * Notify sub actions were appended to the end of {@link GuidedAction#getSubActions()} of an
+     * action. If its sub actions are shown, the new rows are inserted as a single range.
+     *
+     * @param parent The action whose sub actions grew.
+     * @param added  The sub actions that were appended.
+     */
+    public void notifySubActionsAppended(GuidedAction parent, List<GuidedAction> added) {
+        if (mSubAdapter == null || parent != mSubActionsParent || added.isEmpty())
+            return;
+
+        List<GuidedAction> subActions = parent.getSubActions();
+        if (mSubAdapter.getCount() == subActions.size() - added.size())
+            mSubAdapter.appendActions(added);
+        else
+            mSubAdapter.setActions(subActions);
+    }
+
+    /**
+     * Notify a sub action of an action changed, for instance its checked state. If the sub
+     * actions are shown, only its row is bound again.
+     *
+     * @param parent   The action whose sub action changed.
+     * @param position Position of the sub action in {@link GuidedAction#getSubActions()}.
+     */
+    public void notifySubActionChanged(GuidedAction parent, int position) {
+        if (mSubAdapter != null && parent == mSubActionsParent
+                && position >= 0 && position < mSubAdapter.getCount())
+            mSubAdapter.notifyItemChanged(position);
+    }
+
+    /**
+     * Notify the sub actions of an action were replaced, for instance with
+     * {@link GuidedAction#setSubActions(List)}. If they are shown, the rows are set again.
+     *
+     * @param parent The action whose sub actions changed.
+     */
+    public void notifySubActionsChanged(GuidedAction parent) {
+        if (mSubAdapter != null && parent == mSubActionsParent)
+            mSubAdapter.setActions(parent.getSubActions());
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -721,26 +999,29 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
                              Bundle savedInstanceState) {
         if (DEBUG) Log.v(TAG, "onCreateView");
 
-        resolveTheme();
-        inflater = getThemeInflater(inflater);
-
-        rootLayout = (GuidedStepRootLayout) inflater.inflate(R.layout.lb_guidedstep_fragment, container, false);
+        Hierarchy hierarchy = takeWarmUp();
+        if (hierarchy == null) {
+            resolveTheme(getActivity());
+            hierarchy = inflateHierarchy(getActivity(), getThemeInflater(inflater), container,
+                    mActionsStylist, mButtonActionsStylist);
+        } else {
+            mActionsStylist = hierarchy.actionsStylist;
+            mButtonActionsStylist = hierarchy.buttonActionsStylist;
+            if (hierarchy.root.getLayoutParams() == null) {
+                // Inflated without the container, restore the size the layout asks for.
+                hierarchy.root.setLayoutParams(new ViewGroup.LayoutParams(
+                        ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+            }
+        }
 
+        rootLayout = hierarchy.root;
         rootLayout.setFocusOutStart(isFocusOutStartAllowed());
         rootLayout.setFocusOutEnd(isFocusOutEndAllowed());
         rootLayout.setBackgroundColor(Color.TRANSPARENT);
         rootLayout.setOnKeyPress(this);
+        rootLayout.setOnFastScroll(this);
 
-        ViewGroup guidanceContainer = (ViewGroup) rootLayout.findViewById(R.id.content_fragment);
-        guidanceContainer.setVisibility(View.INVISIBLE);
-
-        ViewGroup actionContainer = (ViewGroup) rootLayout.findViewById(R.id.action_fragment);
-
-        View actionsView = mActionsStylist.onCreateView(inflater, actionContainer);
-        actionContainer.addView(actionsView);
-
-        View buttonActionsView = mButtonActionsStylist.onCreateView(inflater, actionContainer);
-        actionContainer.addView(buttonActionsView);
+        View buttonActionsView = hierarchy.buttonActionsView;
 
         GuidedActionAdapter.EditListener editListener = new GuidedActionAdapter.EditListener() {
 
@@ -765,7 +1046,11 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
             }
         };
 
-        mAdapter = new GuidedActionAdapter(getActionsByKey(), new GuidedActionAdapter.ClickListener() {
+        // A restored category is shown right away, the others keep showing the first one.
+        if (!TextUtils.isEmpty(mCurrentKey))
+            onPrepareCategory(mCurrentKey);
+
+        mAdapter = new CategoryActionAdapter(getShownActions(mCurrentKey), new GuidedActionAdapter.ClickListener() {
             @Override
             public void onGuidedActionClicked(GuidedAction action) {
                 GuidedStepListFragment.this.onGuidedActionClicked(action);
@@ -776,6 +1061,7 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
                 }
             }
         }, this, mActionsStylist, false);
+        mChangeBatcher.setAdapter(mAdapter);
 
         mButtonAdapter = new GuidedActionAdapter(mButtonActions, new GuidedActionAdapter.ClickListener() {
             @Override
@@ -784,17 +1070,21 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
             }
         }, this, mButtonActionsStylist, false);
 
-        mSubAdapter = new GuidedActionAdapter(null, new GuidedActionAdapter.ClickListener() {
+        mSubAdapter = new CategoryActionAdapter(null, new GuidedActionAdapter.ClickListener() {
             @Override
             public void onGuidedActionClicked(GuidedAction action) {
                 if (mActionsStylist.isInExpandTransition()) {
                     return;
                 }
-                if (GuidedStepListFragment.this.onSubGuidedActionClicked(action)) {
+                boolean collapse = GuidedStepListFragment.this.onSubGuidedActionClicked(action);
+                if (collapse) {
                     collapseSubActions();
                 }
-                rootLayout.setOnSubcategoryfocus(false);
-                setActions(mActions, action.toString());
+                // Back closes the sub actions first while they stay expanded.
+                rootLayout.setOnSubcategoryfocus(!collapse);
+                String key = onProvideCategoryKey(action);
+                if (key != null)
+                    switchCategory(key);
             }
         }, this, mActionsStylist, true);
 
@@ -804,6 +1094,13 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
         mAdapterGroup.setEditListener(editListener);
         mActionsStylist.setEditListener(editListener);
 
+        if (mSharedViewPool) {
+            ActionViewPool viewPool = ActionViewPool.get(getActivity());
+            shareViewPool(viewPool, mActionsStylist, mActionsStylist.getActionsGridView());
+            shareViewPool(viewPool, mActionsStylist, mActionsStylist.getSubActionsGridView());
+            shareViewPool(viewPool, mButtonActionsStylist, mButtonActionsStylist.getActionsGridView());
+        }
+
         mActionsStylist.getActionsGridView().setAdapter(mAdapter);
         if (mActionsStylist.getSubActionsGridView() != null) {
             mActionsStylist.getSubActionsGridView().setAdapter(mSubAdapter);
@@ -835,19 +1132,127 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
         int pos = (mSelectedIndex >= 0 && mSelectedIndex < mActions.size()) ? mSelectedIndex : getFirstCheckedAction();
         setSelectedActionPosition(pos);
         setSelectedButtonActionPosition(0);
+        restoreFocus();
+
+        if (mCreateNanos != 0)
+            rootLayout.getViewTreeObserver().addOnPreDrawListener(mFirstFrameListener);
 
         return rootLayout;
     }
 
+    @Override
+    public void onDestroyView() {
+        captureFocus();
+        mChangeBatcher.setAdapter(null);
+        if (mSharedViewPool) {
+            // Idle rows go to the shared pool, the next step takes them instead of inflating.
+            releaseViewPool(mActionsStylist.getActionsGridView());
+            releaseViewPool(mActionsStylist.getSubActionsGridView());
+            releaseViewPool(mButtonActionsStylist.getActionsGridView());
+        }
+        ViewTreeObserver observer = rootLayout.getViewTreeObserver();
+        observer.removeOnPreDrawListener(mFirstFrameListener);
+        observer.removeOnPreDrawListener(mSwitchFrameListener);
+        mSwitchTraceArmed = false;
+        mFastScrolling = false;
+        mTransitions.cancelAll();
+        super.onDestroyView();
+    }
+
+    private static void shareViewPool(ActionViewPool viewPool, GuidedActionsStylist stylist,
+                                      VerticalGridView gridView) {
+        if (gridView == null || !(stylist instanceof PooledActionsStylist))
+            return;
+
+        ((PooledActionsStylist) stylist).setViewPool(viewPool);
+        gridView.setRecycledViewPool(new SharedRecycledViewPool(viewPool, stylist));
+    }
+
+    private static void releaseViewPool(VerticalGridView gridView) {
+        if (gridView != null && gridView.getRecycledViewPool() instanceof SharedRecycledViewPool)
+            gridView.getRecycledViewPool().clear();
+    }
+
+    /**
+     * Shares inflated rows between the action, sub action and button grids, and with the other
+     * fragments of the activity that enable it, through {@link ActionViewPool#get}. Navigating
+     * between steps then reuses rows instead of inflating them. Requires the stylists to extend
+     * {@link PooledActionsStylist}, as the default ones do. Must be set before the view is
+     * created.
+     *
+     * @param sharedViewPool True to share rows through the activity pool.
+     */
+    public void setSharedViewPool(boolean sharedViewPool) {
+        mSharedViewPool = sharedViewPool;
+    }
+
+    public boolean isSharedViewPool() {
+        return mSharedViewPool;
+    }
+
+    /**
+     * Records the time from onCreate to the first frame drawn.
+     */
+    private final ViewTreeObserver.OnPreDrawListener mFirstFrameListener = new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            rootLayout.getViewTreeObserver().removeOnPreDrawListener(this);
+            if (mCreateNanos != 0) {
+                mMetrics.recordFirstFrame(System.nanoTime() - mCreateNanos);
+                mCreateNanos = 0;
+            }
+            return true;
+        }
+    };
+
+    /**
+     * Records a category switch on the first frame laid out after its rows were set, once the
+     * grid bound them.
+     */
+    private final ViewTreeObserver.OnPreDrawListener mSwitchFrameListener = new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            rootLayout.getViewTreeObserver().removeOnPreDrawListener(this);
+            mSwitchTraceArmed = false;
+            if (mAdapter != null)
+                mMetrics.recordCategorySwitch(mSwitchTraceKey, System.nanoTime() - mSwitchStartNanos,
+                        mAdapter.getBindCount());
+            return true;
+        }
+    };
+
+    /**
+     * Starts counting the rows bound for the current category switch, until the next frame.
+     */
+    private void armSwitchTrace() {
+        mAdapter.resetBindCount();
+        if (!mSwitchTraceArmed && rootLayout != null) {
+            mSwitchTraceArmed = true;
+            rootLayout.getViewTreeObserver().addOnPreDrawListener(mSwitchFrameListener);
+        }
+    }
+
+    /**
+     * @return Performance counters of this fragment.
+     */
+    public StepMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Sets a listener receiving every value recorded in {@link #getMetrics()}.
+     */
+    public void setMetricsListener(StepMetrics.Listener listener) {
+        mMetrics.setListener(listener);
+    }
+
     private int getFirstCheckedAction() {
-        for (GuidedActionList guidedActionList : mActions) {
-            if (guidedActionList.getKey().equals(firstElementKeys)) {
-                List<GuidedAction> guidedAction = getActionsByKey(guidedActionList.getKey());
+        if (mIndex.contains(firstElementKeys)) {
+            List<GuidedAction> guidedAction = mIndex.getComposedActions(firstElementKeys);
 
-                for (int i = 0, size = guidedAction.size(); i < size; i++) {
-                    if (guidedAction.get(i).isChecked())
-                        return i;
-                }
+            for (int i = 0, size = guidedAction.size(); i < size; i++) {
+                if (guidedAction.get(i).isChecked())
+                    return i;
             }
         }
         return 0;
@@ -936,9 +1341,7 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
             mActionsStylist.onImeDisappearing(animators);
             mButtonActionsStylist.onImeDisappearing(animators);
         }
-        AnimatorSet set = new AnimatorSet();
-        set.playTogether(animators);
-        set.start();
+        mTransitions.playIme(entering, animators);
     }
 
     /**
@@ -990,7 +1393,8 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
 
     /**
      * Fills out the set of actions available to the user. This hook is called during {@link
-     * #onCreate}. The default leaves the list of actions empty; subclasses should override.
+     * #onCreate}, or on a background thread when {@link #isAsyncActionsBuild()} is set. The
+     * default leaves the list of actions empty; subclasses should override.
      *
      * @param actions            A non-null, empty list ready to be populated.
      * @param savedInstanceState The saved instance state from onCreate.
@@ -1002,16 +1406,6 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
         return action.isAutoSaveRestoreEnabled() && action.getId() != GuidedAction.NO_ID;
     }
 
-    /**
-     * Get the key will be used to save GuidedAction with Fragment.
-     *
-     * @param action GuidedAction to get key.
-     * @return Key to save the GuidedAction.
-     */
-    final String getAutoRestoreKey(GuidedAction action) {
-        return EXTRA_ACTION_PREFIX + action.getId();
-    }
-
     /**
      * Get the key will be used to save GuidedAction with Fragment.
      *
@@ -1022,14 +1416,85 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
         return EXTRA_BUTTON_ACTION_PREFIX + action.getId();
     }
 
+    /**
+     * Restores where the user was in the catalog: the category shown, the focused action and
+     * its offset in the grid. The actions themselves are not saved, they are created again by
+     * {@link #onCreateActions(List, Bundle)}, so the saved state stays the same size for any
+     * catalog.
+     */
     final void onRestoreActions(List<GuidedActionList> actions, Bundle savedInstanceState) {
-        //TODO:
-        for (int i = 0, size = actions.size(); i < size; i++) {
-            GuidedAction action = getActionsByKey("", actions).get(i);
-            if (isSaveEnabled(action)) {
-                action.onRestoreInstanceState(savedInstanceState, getAutoRestoreKey(action));
+        String key = savedInstanceState.getString(EXTRA_CATEGORY_KEY);
+        if (!TextUtils.isEmpty(key)) {
+            for (int i = 0, size = actions.size(); i < size; i++) {
+                if (key.equals(actions.get(i).getKey())) {
+                    mCurrentKey = key;
+                    break;
+                }
             }
         }
+
+        mFocusedActionId = savedInstanceState.getLong(EXTRA_FOCUSED_ACTION_ID, GuidedAction.NO_ID);
+        mScrollOffset = savedInstanceState.getInt(EXTRA_SCROLL_OFFSET, 0);
+        mRestoreFocusPending = mFocusedActionId != GuidedAction.NO_ID;
+    }
+
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (getView() != null)
+            captureFocus();
+
+        outState.putString(EXTRA_CATEGORY_KEY, mCurrentKey);
+        outState.putLong(EXTRA_FOCUSED_ACTION_ID, mFocusedActionId);
+        outState.putInt(EXTRA_SCROLL_OFFSET, mScrollOffset);
+    }
+
+    /**
+     * Remembers the focused action and its offset, for a state saved once the view is gone.
+     */
+    private void captureFocus() {
+        // The restored focus was not applied yet, the grid still shows placeholders.
+        if (mAdapter == null || mRestoreFocusPending)
+            return;
+
+        VerticalGridView gridView = mActionsStylist.getActionsGridView();
+        int position = gridView.getSelectedPosition();
+        if (position < 0 || position >= mAdapter.getItemCount()) {
+            mFocusedActionId = GuidedAction.NO_ID;
+            mScrollOffset = 0;
+            return;
+        }
+
+        mFocusedActionId = mAdapter.getItem(position).getId();
+        RecyclerView.ViewHolder holder = gridView.findViewHolderForAdapterPosition(position);
+        mScrollOffset = holder != null ? holder.itemView.getTop() : 0;
+    }
+
+    /**
+     * Selects the restored focused action once the restored actions are shown, and scrolls it
+     * back to its offset after the next layout.
+     */
+    private void restoreFocus() {
+        if (!mRestoreFocusPending || mAdapter == null)
+            return;
+
+        mRestoreFocusPending = false;
+        final int position = mAdapter.getPositionById(mFocusedActionId);
+        if (position == RecyclerView.NO_POSITION)
+            return;
+
+        final VerticalGridView gridView = mActionsStylist.getActionsGridView();
+        gridView.setSelectedPosition(position);
+        gridView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                gridView.getViewTreeObserver().removeOnPreDrawListener(this);
+                RecyclerView.ViewHolder holder = gridView.findViewHolderForAdapterPosition(position);
+                if (holder != null && holder.itemView.getTop() != mScrollOffset)
+                    gridView.scrollBy(0, holder.itemView.getTop() - mScrollOffset);
+                return true;
+            }
+        });
     }
 
     /**
@@ -1039,6 +1504,7 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         if (DEBUG) Log.v(TAG, "onCreate");
+        mCreateNanos = System.nanoTime();
         // Set correct transition from saved arguments.
         onProvideFragmentTransitions();
         Bundle state = (savedInstanceState != null) ? savedInstanceState : getArguments();
@@ -1047,12 +1513,18 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
                 mSelectedIndex = state.getInt(EXTRA_ACTION_SELECTED_INDEX, -1);
             }
         }
-        ArrayList<GuidedActionList> actions = new ArrayList<>();
-        onCreateActions(actions, savedInstanceState);
-        if (savedInstanceState != null) {
-            onRestoreActions(actions, savedInstanceState);
+        if (mAsyncActionsBuild) {
+            ArrayList<GuidedActionList> placeholder = new ArrayList<>();
+            onCreatePlaceholderActions(placeholder);
+            setActions(placeholder, "");
+            createActionsAsync(savedInstanceState);
+        } else {
+            ArrayList<GuidedActionList> actions = new ArrayList<>();
+            long start = System.nanoTime();
+            onCreateActions(actions, savedInstanceState);
+            mMetrics.recordActionsCreated(System.nanoTime() - start);
+            publishActions(actions, savedInstanceState);
         }
-        setActions(actions, "");
         ArrayList<GuidedAction> buttonActions = new ArrayList<GuidedAction>();
         onCreateButtonActions(buttonActions, savedInstanceState);
         if (savedInstanceState != null) {
@@ -1061,6 +1533,86 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
         setButtonActions(buttonActions);
     }
 
+    @Override
+    public void onDestroy() {
+        // Drops a build still running in the background.
+        mBuildGeneration++;
+        if (mWarmUp != null) {
+            mWarmUp.cancel(false);
+            mWarmUp = null;
+        }
+        super.onDestroy();
+    }
+
+    private void createActionsAsync(final Bundle savedInstanceState) {
+        final int generation = ++mBuildGeneration;
+
+        StepExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                final ArrayList<GuidedActionList> actions = new ArrayList<>();
+                long start = System.nanoTime();
+                onCreateActions(actions, savedInstanceState);
+                final long duration = System.nanoTime() - start;
+
+                StepExecutors.main().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mBuildGeneration || getActivity() == null)
+                            return;
+
+                        mMetrics.recordActionsCreated(duration);
+                        publishActions(actions, savedInstanceState);
+                    }
+                });
+            }
+        });
+    }
+
+    private void publishActions(List<GuidedActionList> actions, Bundle savedInstanceState) {
+        if (savedInstanceState != null) {
+            onRestoreActions(actions, savedInstanceState);
+        }
+        onActionsCreated(actions);
+        setActions(actions, mCurrentKey);
+        restoreFocus();
+    }
+
+    /**
+     * When enabled, {@link #onCreateActions(List, Bundle)} runs on a background thread. The
+     * fragment shows the actions of {@link #onCreatePlaceholderActions(List)} at once and
+     * publishes the real ones when they are ready. Must be set before the fragment is created.
+     *
+     * @param asyncActionsBuild True to create the actions off the main thread.
+     */
+    public void setAsyncActionsBuild(boolean asyncActionsBuild) {
+        mAsyncActionsBuild = asyncActionsBuild;
+    }
+
+    public boolean isAsyncActionsBuild() {
+        return mAsyncActionsBuild;
+    }
+
+    /**
+     * Fills out the actions shown while {@link #onCreateActions(List, Bundle)} runs in the
+     * background, typically just the category header. Only called when
+     * {@link #isAsyncActionsBuild()} is set. The default leaves the list empty.
+     *
+     * @param actions A non-null, empty list ready to be populated.
+     */
+    public void onCreatePlaceholderActions(@NonNull List<GuidedActionList> actions) {
+    }
+
+    /**
+     * Called on the main thread with the actions created by
+     * {@link #onCreateActions(List, Bundle)}, right before they are shown. Subclasses whose
+     * actions are created in the background publish the state built alongside them here.
+     *
+     * @param actions The created actions.
+     */
+    public void onActionsCreated(@NonNull List<GuidedActionList> actions) {
+    }
+
     /**
      * Sets the list of button GuidedActions that the user may take in this fragment.
      *
@@ -1089,11 +1641,187 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
      */
     public void setActions(List<GuidedActionList> actions, @Nullable String key) {
         mActions = actions;
+        mIndex.setActions(actions, firstElementKeys);
+        mSwitchGeneration++;
+        mSwitchPending = false;
+        mCurrentKey = key;
         if (mAdapter != null) {
-            mAdapter.setActions(getActionsByKey(key));
+            onPrepareCategory(key);
+            mAdapter.setActions(getShownActions(key));
+        }
+    }
+
+    /**
+     * Adds categories to the ones set with {@link #setActions(List, String)}, such as sub
+     * categories loaded on demand. Only the added categories are indexed, the lists already
+     * composed for the others are kept.
+     *
+     * @param added The categories to add.
+     */
+    public void addActionLists(List<GuidedActionList> added) {
+        if (!(mActions instanceof ArrayList))
+            mActions = new ArrayList<>(mActions);
+
+        for (GuidedActionList guidedActionList : added) {
+            mActions.add(guidedActionList);
+            mIndex.add(guidedActionList);
+        }
+    }
+
+    /**
+     * Shows the actions of another category without rebuilding the category index. How the
+     * visible rows are updated depends on {@link #getCategorySwitchMode()}.
+     *
+     * @param key Key of the category to show.
+     */
+    public void switchCategory(@Nullable String key) {
+        if (mAdapter == null)
+            return;
+
+        mSwitchStartNanos = System.nanoTime();
+        mSwitchTraceKey = key;
+        mCurrentKey = key;
+        onPrepareCategory(key);
+        if (mCategorySwitchMode == CATEGORY_SWITCH_DIFF) {
+            switchCategoryByDiff(getShownActions(key));
+        } else {
+            mSwitchGeneration++;
+            mSwitchPending = false;
+            mAdapter.setActions(getShownActions(key));
+            armSwitchTrace();
+        }
+    }
+
+    /**
+     * @return Key of the category shown, or null/empty for the first one.
+     */
+    @Nullable
+    public String getCurrentCategoryKey() {
+        return mCurrentKey;
+    }
+
+    private void switchCategoryByDiff(List<GuidedAction> actions) {
+        final CategoryActionAdapter adapter = mAdapter;
+        final int generation = ++mSwitchGeneration;
+        mSwitchPending = true;
+        final List<GuidedAction> oldActions = adapter.getActions();
+        final List<GuidedAction> newActions = new ArrayList<>(actions);
+        final GuidedAction header = mIndex.getHeader();
+
+        StepExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                        new CategoryActionAdapter.ActionDiffCallback(oldActions, newActions, header), true);
+
+                StepExecutors.main().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A newer switch or a full reset superseded this diff.
+                        if (generation != mSwitchGeneration || adapter != mAdapter)
+                            return;
+
+                        mSwitchPending = false;
+                        adapter.setActions(newActions, diff);
+                        armSwitchTrace();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Called before the actions of a category are shown, so subclasses that create actions
+     * lazily can fill its {@link GuidedActionList} in and call
+     * {@link #notifyActionListChanged(String)}. The default does nothing.
+     *
+     * @param key Key of the category about to be shown.
+     */
+    public void onPrepareCategory(@Nullable String key) {
+    }
+
+    /**
+     * Selects how the visible rows are updated when switching category.
+     *
+     * @param mode {@link #CATEGORY_SWITCH_RESET} or {@link #CATEGORY_SWITCH_DIFF}.
+     */
+    public void setCategorySwitchMode(int mode) {
+        mCategorySwitchMode = mode;
+    }
+
+    /**
+     * @return {@link #CATEGORY_SWITCH_RESET} or {@link #CATEGORY_SWITCH_DIFF}.
+     */
+    public int getCategorySwitchMode() {
+        return mCategorySwitchMode;
+    }
+
+    /**
+     * Notify the actions of a category were replaced or modified, so the cached list shown for
+     * it is composed again on next lookup.
+     *
+     * @param key Key of the category that changed.
+     */
+    public void notifyActionListChanged(String key) {
+        mIndex.invalidate(key);
+    }
+
+    /**
+     * Notify an action of the {@link GuidedActionList} of a category was replaced. The cached
+     * list shown for the category is updated in place and, if the category is shown, only the
+     * row of the action is bound again. Categories sharing the action through a composite one
+     * are not updated, notify them with {@link #notifyActionListChanged(String)}.
+     *
+     * @param key      Key of the category.
+     * @param position Position of the action in the {@link GuidedActionList}.
+     * @param old      The action that was replaced.
+     */
+    public void notifyActionReplaced(String key, int position, GuidedAction old) {
+        GuidedActionList guidedActionList = mIndex.getActionList(key);
+        if (guidedActionList == null)
+            return;
+
+        GuidedAction action = guidedActionList.getActions().get(position);
+        mIndex.replace(key, position, old, action);
+        if (mAdapter == null || !mIndex.isSameCategory(key, mCurrentKey))
+            return;
+
+        int row = mAdapter.getPositionById(old.getId());
+        if (mSwitchPending || row == RecyclerView.NO_POSITION || mAdapter.getItem(row) != old) {
+            // The diff in flight, or the rows shown, do not have the old action where expected.
+            mSwitchGeneration++;
+            mSwitchPending = false;
+            mAdapter.setActions(getShownActions(mCurrentKey));
+        } else {
+            mAdapter.setAction(row, action);
         }
     }
 
+    /**
+     * Notify actions were appended to the end of the {@link GuidedActionList} of a category. If
+     * the category is shown, the new rows are inserted as a single range without rebinding the
+     * others.
+     *
+     * @param key   Key of the category.
+     * @param added The actions that were appended.
+     */
+    public void notifyActionsAppended(String key, List<GuidedAction> added) {
+        if (added.isEmpty())
+            return;
+
+        mIndex.append(key, added);
+        if (mAdapter == null || !mIndex.isSameCategory(key, mCurrentKey))
+            return;
+
+        if (mSwitchPending) {
+            // The diff in flight was computed without the new actions.
+            mSwitchGeneration++;
+            mSwitchPending = false;
+            mAdapter.setActions(getShownActions(mCurrentKey));
+        } else {
+            mAdapter.appendActions(added);
+        }
+    }
     /**
      * Fills out the set of actions shown at right available to the user. This hook is called during
      * {@link #onCreate}. The default leaves the list of actions empty; subclasses may override.
@@ -1114,6 +1842,13 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
         return mActions.get(FIRT_ELEMENT).getActions();
     }
 
+    /**
+     * Returns the actions shown for a category: the category header followed by its items. The
+     * list is a copy the caller may keep and modify.
+     *
+     * @param keyFind Key of the category, or null/empty for the first one.
+     * @return The actions of the category, or an empty list if the key is unknown.
+     */
     public List<GuidedAction> getActionsByKey(String keyFind) {
         if (mActions == null)
             return new ArrayList<>();
@@ -1127,25 +1862,25 @@ public class GuidedStepListFragment extends Element implements GuidedActionAdapt
         if (keyFind.isEmpty())
             return mActions.get(FIRT_ELEMENT).getActions();
 
-        List<GuidedAction> guidedActions = new ArrayList<>();
-
-        for (GuidedActionList guidedActionList : mActions) {
-            if (guidedActionList.getKey().equals(keyFind)) {
-
-                if (!guidedActionList.getKey().equals(firstElementKeys)) {
-                    GuidedAction guidedAction = mActions.get(FIRT_ELEMENT).getActions().get(FIRT_ELEMENT);
+        if (!mIndex.contains(keyFind))
+            return new ArrayList<>();
 
-                    if (guidedAction != null)
-                        guidedAction.setDescription(keyFind);
+        return new ArrayList<>(getShownActions(keyFind));
+    }
 
-                    guidedActions.add(guidedAction);
-                }
+    /**
+     * @return The cached list shown for a category, with the header describing it. Not copied,
+     * so it must not be modified.
+     */
+    private List<GuidedAction> getShownActions(String key) {
+        if (key != null && !key.isEmpty() && !key.equals(firstElementKeys) && mIndex.contains(key)) {
+            GuidedAction guidedAction = mIndex.getHeader();
 
-                guidedActions.addAll(guidedActionList.getActions());
-                break;
-            }
+            if (guidedAction != null)
+                guidedAction.setDescription(key);
         }
-        return guidedActions;
+
+        return mIndex.getComposedActions(key);
     }
 
     public List<GuidedAction> getActionsByKey(String keyFind, List<GuidedActionList> guidedActionLists) {
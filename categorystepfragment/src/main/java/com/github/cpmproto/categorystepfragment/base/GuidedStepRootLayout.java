@@ -26,11 +26,15 @@ import android.view.ViewGroup;
 import android.widget.LinearLayout;
 
 class GuidedStepRootLayout extends LinearLayout {
+    // Repeats of a held D-pad key before the rest are handed to the OnFastScroll.
+    private static final int FAST_SCROLL_REPEATS = 3;
 
     private boolean mFocusOutStart = false;
     private boolean mFocusOutEnd = false;
     private boolean isSubCategory = false;
     private OnKeyPress onKeyPress;
+    private OnFastScroll onFastScroll;
+    private boolean fastScrolling;
 
     public GuidedStepRootLayout(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -52,12 +56,21 @@ class GuidedStepRootLayout extends LinearLayout {
         this.onKeyPress = onKeyPress;
     }
 
+    public void setOnFastScroll(OnFastScroll onFastScroll) {
+        this.onFastScroll = onFastScroll;
+    }
+
     public void setOnSubcategoryfocus(boolean isOnSubCategory) {
         this.isSubCategory = isOnSubCategory;
     }
 
     @Override
     public boolean dispatchKeyEvent(KeyEvent event) {
+        int keyCode = event.getKeyCode();
+        if ((keyCode == KeyEvent.KEYCODE_DPAD_UP || keyCode == KeyEvent.KEYCODE_DPAD_DOWN)
+                && dispatchFastScroll(event))
+            return true;
+
         if (event.getAction() >= 1)
             return super.dispatchKeyEvent(event);
 
@@ -74,9 +87,59 @@ class GuidedStepRootLayout extends LinearLayout {
         return super.dispatchKeyEvent(event);
     }
 
+    /**
+     * Hands sustained repeats of the up and down keys to the OnFastScroll, which jumps instead of
+     * queueing one focus move per repeat.
+     *
+     * @return True if the event was consumed by the fast scroll.
+     */
+    private boolean dispatchFastScroll(KeyEvent event) {
+        if (event.getAction() == KeyEvent.ACTION_UP || event.getRepeatCount() < FAST_SCROLL_REPEATS) {
+            boolean consumed = fastScrolling && event.getAction() == KeyEvent.ACTION_UP;
+            endFastScroll();
+            return consumed;
+        }
+
+        if (onFastScroll == null)
+            return false;
+
+        int direction = event.getKeyCode() == KeyEvent.KEYCODE_DPAD_DOWN ? 1 : -1;
+        if (!onFastScroll.onFastScroll(direction, event.getRepeatCount() - FAST_SCROLL_REPEATS))
+            return false;
+
+        fastScrolling = true;
+        return true;
+    }
+
+    private void endFastScroll() {
+        if (!fastScrolling)
+            return;
+
+        fastScrolling = false;
+        if (onFastScroll != null)
+            onFastScroll.onFastScrollEnd();
+    }
+
+    @Override
+    public void onWindowFocusChanged(boolean hasWindowFocus) {
+        super.onWindowFocusChanged(hasWindowFocus);
+
+        // The key up is never received once the window lost focus.
+        if (!hasWindowFocus)
+            endFastScroll();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        endFastScroll();
+        super.onDetachedFromWindow();
+    }
 
     @Override
     public View focusSearch(View focused, int direction) {
+        // The fast scroll moves the selection itself, vertical moves would fight its jumps.
+        if (fastScrolling && (direction == FOCUS_UP || direction == FOCUS_DOWN))
+            return focused;
 
         if (direction == FOCUS_LEFT) {
             onKeyPress.onKeyPressLeft();
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.cpmproto.categorystepfragment.base;
+
+/**
+ * Receives the D-pad repeats of a key held down, once they come faster than the actions grid
+ * can follow row by row.
+ */
+public interface OnFastScroll {
+
+    /**
+     * @param direction 1 to scroll down, -1 to scroll up.
+     * @param repeats   Number of repeats since fast scrolling started.
+     * @return True if the key was handled, false to let it move the focus as usual.
+     */
+    boolean onFastScroll(int direction, int repeats);
+
+    /**
+     * Called once the key is released, or the window loses focus, after a fast scroll.
+     */
+    void onFastScrollEnd();
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.github.cpmproto.categorystepfragment.base;
+
+import android.support.v17.leanback.widget.GuidedActionsStylist;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * GuidedActionsStylist that takes its rows from an {@link ActionViewPool} when one is set, and
+ * inflates them otherwise. Subclasses providing their own stylist extend this one to keep
+ * {@link GuidedStepListFragment#setSharedViewPool(boolean)} working.
+ */
+public class PooledActionsStylist extends GuidedActionsStylist {
+    private ActionViewPool mViewPool;
+
+    public void setViewPool(ActionViewPool viewPool) {
+        mViewPool = viewPool;
+    }
+
+    public ActionViewPool getViewPool() {
+        return mViewPool;
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        if (mViewPool != null) {
+            View view = mViewPool.obtain(onProvideItemLayoutId(viewType));
+            if (view != null)
+                return new ViewHolder(view, parent == getSubActionsGridView());
+        }
+        return super.onCreateViewHolder(parent, viewType);
+    }
+}
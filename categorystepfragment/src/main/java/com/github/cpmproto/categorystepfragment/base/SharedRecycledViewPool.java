@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.github.cpmproto.categorystepfragment.base;
+
+import android.support.v17.leanback.widget.GuidedActionsStylist;
+import android.support.v7.widget.RecyclerView;
+import android.util.SparseIntArray;
+
+/**
+ * RecycledViewPool of one grid that hands the rows it cannot keep to an {@link ActionViewPool}.
+ * View holders stay with their grid, as their adapter set listeners on them, but their views
+ * move to the shared pool once the grid has enough of them or is cleared.
+ */
+class SharedRecycledViewPool extends RecyclerView.RecycledViewPool {
+    private static final int DEFAULT_MAX_SCRAP = 5;
+
+    private final ActionViewPool mViewPool;
+    private final GuidedActionsStylist mStylist;
+    private final SparseIntArray mCounts = new SparseIntArray();
+    private final SparseIntArray mMaxScrap = new SparseIntArray();
+
+    SharedRecycledViewPool(ActionViewPool viewPool, GuidedActionsStylist stylist) {
+        mViewPool = viewPool;
+        mStylist = stylist;
+    }
+
+    @Override
+    public void setMaxRecycledViews(int viewType, int max) {
+        mMaxScrap.put(viewType, max);
+        super.setMaxRecycledViews(viewType, max);
+    }
+
+    @Override
+    public RecyclerView.ViewHolder getRecycledView(int viewType) {
+        RecyclerView.ViewHolder holder = super.getRecycledView(viewType);
+        if (holder != null)
+            mCounts.put(viewType, mCounts.get(viewType) - 1);
+
+        return holder;
+    }
+
+    @Override
+    public void putRecycledView(RecyclerView.ViewHolder scrap) {
+        int viewType = scrap.getItemViewType();
+        int count = mCounts.get(viewType);
+        if (count < mMaxScrap.get(viewType, DEFAULT_MAX_SCRAP)) {
+            mCounts.put(viewType, count + 1);
+            super.putRecycledView(scrap);
+        } else {
+            mViewPool.recycle(mStylist.onProvideItemLayoutId(viewType), scrap.itemView);
+        }
+    }
+
+    /**
+     * Moves the views of the idle holders to the shared pool.
+     */
+    @Override
+    public void clear() {
+        for (int i = 0, size = mCounts.size(); i < size; i++) {
+            int viewType = mCounts.keyAt(i);
+            int layoutId = mStylist.onProvideItemLayoutId(viewType);
+            RecyclerView.ViewHolder holder;
+            while ((holder = super.getRecycledView(viewType)) != null)
+                mViewPool.recycle(layoutId, holder.itemView);
+        }
+        mCounts.clear();
+        super.clear();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.cpmproto.categorystepfragment.base;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors shared by the step fragments: a small pool of background priority threads for work
+ * that must stay off the UI thread, and the main thread for publishing its results.
+ */
+public final class StepExecutors {
+    private static final int BACKGROUND_THREADS = 2;
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private static final Executor sMainExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            if (isMainThread())
+                command.run();
+            else
+                sMainHandler.post(command);
+        }
+    };
+
+    private static ThreadPoolExecutor sBackgroundExecutor;
+
+    private StepExecutors() {
+    }
+
+    /**
+     * @return Executor running tasks on background priority threads.
+     */
+    public static synchronized Executor background() {
+        if (sBackgroundExecutor == null) {
+            sBackgroundExecutor = new ThreadPoolExecutor(BACKGROUND_THREADS, BACKGROUND_THREADS,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new BackgroundThreadFactory());
+            sBackgroundExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sBackgroundExecutor;
+    }
+
+    /**
+     * @return Executor running tasks on the main thread, inline when already called from it.
+     */
+    public static Executor main() {
+        return sMainExecutor;
+    }
+
+    public static Handler mainHandler() {
+        return sMainHandler;
+    }
+
+    public static boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    private static final class BackgroundThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "CategoryStep #" + mCount.incrementAndGet());
+        }
+    }
+}
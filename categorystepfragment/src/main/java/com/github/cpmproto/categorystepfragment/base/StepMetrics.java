@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.github.cpmproto.categorystepfragment.base;
+
+import com.github.cpmproto.categorystepfragment.util.Histogram;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Performance counters of a {@link GuidedStepListFragment}: time from onCreate to the first
+ * frame, onCreateActions duration, category switch latency, rows bound per switch, icon load
+ * latency and icon cache hit ratio. Durations are in nanoseconds. Values are recorded on the
+ * main thread; reading and dumping them is safe from any thread.
+ */
+public final class StepMetrics {
+    public static final String FIRST_FRAME = "firstFrameNanos";
+    public static final String CREATE_ACTIONS = "createActionsNanos";
+    public static final String CATEGORY_SWITCH = "categorySwitchNanos";
+    public static final String ROWS_BOUND = "rowsBoundPerSwitch";
+    public static final String ICON_LOAD = "iconLoadNanos";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    /**
+     * Receives every value as it is recorded, on the main thread.
+     */
+    public interface Listener {
+        void onFirstFrame(long nanos);
+
+        void onActionsCreated(long nanos);
+
+        /**
+         * @param key       Key of the category switched to.
+         * @param nanos     Time from the switch to the first frame showing the new rows.
+         * @param rowsBound Number of rows bound for that frame.
+         */
+        void onCategorySwitched(String key, long nanos, int rowsBound);
+
+        /**
+         * @param nanos  Time from the request to the delivery of the icon.
+         * @param cached True if the icon was served from the cache.
+         */
+        void onIconLoaded(long nanos, boolean cached);
+    }
+
+    private final Histogram mFirstFrame = new Histogram();
+    private final Histogram mCreateActions = new Histogram();
+    private final Histogram mCategorySwitch = new Histogram();
+    private final Histogram mRowsBound = new Histogram();
+    private final Histogram mIconLoad = new Histogram();
+    private long mIconHits;
+    private long mIconMisses;
+    private Listener mListener;
+
+    public synchronized void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public void recordFirstFrame(long nanos) {
+        Listener listener;
+        synchronized (this) {
+            mFirstFrame.record(nanos);
+            listener = mListener;
+        }
+        if (listener != null)
+            listener.onFirstFrame(nanos);
+    }
+
+    public void recordActionsCreated(long nanos) {
+        Listener listener;
+        synchronized (this) {
+            mCreateActions.record(nanos);
+            listener = mListener;
+        }
+        if (listener != null)
+            listener.onActionsCreated(nanos);
+    }
+
+    public void recordCategorySwitch(String key, long nanos, int rowsBound) {
+        Listener listener;
+        synchronized (this) {
+            mCategorySwitch.record(nanos);
+            mRowsBound.record(rowsBound);
+            listener = mListener;
+        }
+        if (listener != null)
+            listener.onCategorySwitched(key, nanos, rowsBound);
+    }
+
+    public void recordIconLoad(long nanos, boolean cached) {
+        Listener listener;
+        synchronized (this) {
+            mIconLoad.record(nanos);
+            if (cached)
+                mIconHits++;
+            else
+                mIconMisses++;
+            listener = mListener;
+        }
+        if (listener != null)
+            listener.onIconLoaded(nanos, cached);
+    }
+
+    /**
+     * @return Share of icon loads served from the cache, or 0 if no icon was loaded.
+     */
+    public synchronized double getIconHitRatio() {
+        long total = mIconHits + mIconMisses;
+        return total == 0 ? 0 : (double) mIconHits / total;
+    }
+
+    public synchronized long getIconHitCount() {
+        return mIconHits;
+    }
+
+    public synchronized long getIconMissCount() {
+        return mIconMisses;
+    }
+
+    /**
+     * @param name One of {@link #FIRST_FRAME}, {@link #CREATE_ACTIONS}, {@link #CATEGORY_SWITCH},
+     *             {@link #ROWS_BOUND} or {@link #ICON_LOAD}.
+     * @return Copy of the count, min, max, mean and percentiles of the histogram, in that order.
+     */
+    public synchronized double[] getSummary(String name) {
+        return summarize(histogram(name));
+    }
+
+    public synchronized void reset() {
+        mFirstFrame.reset();
+        mCreateActions.reset();
+        mCategorySwitch.reset();
+        mRowsBound.reset();
+        mIconLoad.reset();
+        mIconHits = 0;
+        mIconMisses = 0;
+    }
+
+    /**
+     * Writes the metrics as a JSON object with one object per histogram and the icon cache
+     * counters.
+     */
+    public synchronized void writeJson(Writer out) throws IOException {
+        out.write('{');
+        String[] names = names();
+        for (String name : names) {
+            double[] summary = summarize(histogram(name));
+            out.write('"' + name + "\":{");
+            String[] statistics = statistics();
+            for (int i = 0; i < statistics.length; i++) {
+                if (i > 0)
+                    out.write(',');
+                out.write('"' + statistics[i] + "\":" + format(summary[i]));
+            }
+            out.write("},");
+        }
+        out.write("\"iconCacheHits\":" + mIconHits
+                + ",\"iconCacheMisses\":" + mIconMisses
+                + ",\"iconCacheHitRatio\":" + format(getIconHitRatio()) + '}');
+    }
+
+    /**
+     * Writes the metrics as CSV rows of metric, statistic and value, after a header row.
+     */
+    public synchronized void writeCsv(Writer out) throws IOException {
+        out.write("metric,statistic,value\n");
+        String[] statistics = statistics();
+        for (String name : names()) {
+            double[] summary = summarize(histogram(name));
+            for (int i = 0; i < statistics.length; i++)
+                out.write(name + ',' + statistics[i] + ',' + format(summary[i]) + '\n');
+        }
+        out.write("iconCache,hits," + mIconHits + '\n');
+        out.write("iconCache,misses," + mIconMisses + '\n');
+        out.write("iconCache,hitRatio," + format(getIconHitRatio()) + '\n');
+    }
+
+    /**
+     * Dumps the metrics to a file, as CSV if its name ends with ".csv" and as JSON otherwise.
+     * The file is written aside and renamed in place, so a collector never reads a partial dump.
+     *
+     * @param file Destination of the dump.
+     * @throws IOException If the dump cannot be written.
+     */
+    public void dump(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        boolean renamed = false;
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF_8));
+            try {
+                if (file.getName().endsWith(".csv"))
+                    writeCsv(out);
+                else
+                    writeJson(out);
+            } finally {
+                out.close();
+            }
+
+            renamed = temp.renameTo(file);
+            if (!renamed)
+                throw new IOException("Cannot replace " + file);
+        } finally {
+            // A failed write leaves no partial dump behind.
+            if (!renamed)
+                temp.delete();
+        }
+    }
+
+    private Histogram histogram(String name) {
+        switch (name) {
+            case FIRST_FRAME:
+                return mFirstFrame;
+            case CREATE_ACTIONS:
+                return mCreateActions;
+            case CATEGORY_SWITCH:
+                return mCategorySwitch;
+            case ROWS_BOUND:
+                return mRowsBound;
+            case ICON_LOAD:
+                return mIconLoad;
+            default:
+                throw new IllegalArgumentException("Unknown metric " + name);
+        }
+    }
+
+    private static String[] names() {
+        return new String[]{FIRST_FRAME, CREATE_ACTIONS, CATEGORY_SWITCH, ROWS_BOUND, ICON_LOAD};
+    }
+
+    private static String[] statistics() {
+        return new String[]{"count", "min", "max", "mean", "p50", "p90", "p99"};
+    }
+
+    private static double[] summarize(Histogram histogram) {
+        double[] summary = new double[4 + PERCENTILES.length];
+        summary[0] = histogram.getCount();
+        summary[1] = histogram.getMin();
+        summary[2] = histogram.getMax();
+        summary[3] = histogram.getMean();
+        for (int i = 0; i < PERCENTILES.length; i++)
+            summary[4 + i] = histogram.getPercentile(PERCENTILES[i]);
+        return summary;
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) ? Long.toString((long) value) : Double.toString(value);
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.cpmproto.categorystepfragment.base;
+
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
+import android.animation.AnimatorSet;
+import android.animation.ObjectAnimator;
+import android.os.SystemClock;
+import android.support.v17.leanback.widget.GuidedAction;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the transitions of a step: the slide out of its content, the IME transitions of its
+ * stylists and the expansion of sub actions. A transition triggered again while it runs is
+ * ignored, and the opposite transition interrupts it, so key repeats and repeated focus
+ * searches never stack animations. Animated views are drawn from hardware layers while they
+ * move, instead of redrawing their hierarchy every frame.
+ */
+public final class StepTransitions {
+    public static final long DEFAULT_SLIDE_DURATION = 800;
+    // An expansion whose row never reached the selection is given up after this delay.
+    private static final long EXPAND_TIMEOUT = 1000;
+
+    private long mSlideDuration = DEFAULT_SLIDE_DURATION;
+    private long mImeDuration = -1;
+    private View mSlideView;
+    private float mSlideTarget;
+    private boolean mSliding;
+    private AnimatorSet mImeSet;
+    private boolean mImeEntering;
+    private GuidedAction mExpanding;
+    private long mExpandStart;
+
+    /**
+     * @param millis Duration of a full slide, a reversed slide takes the part of it left for its
+     *               distance.
+     */
+    public void setSlideDuration(long millis) {
+        mSlideDuration = Math.max(0, millis);
+    }
+
+    public long getSlideDuration() {
+        return mSlideDuration;
+    }
+
+    /**
+     * @param millis Duration of the IME transitions, or a negative value for the durations of the
+     *               animators provided by the stylists.
+     */
+    public void setImeDuration(long millis) {
+        mImeDuration = millis;
+    }
+
+    public long getImeDuration() {
+        return mImeDuration;
+    }
+
+    /**
+     * Slides a view to a horizontal translation. A slide towards the same target is left to
+     * finish; a slide towards another target is reversed from where the view is.
+     *
+     * @param view   The view to slide.
+     * @param target Translation to reach.
+     * @param hide   True to hide the view once it arrives, false to show it while it slides.
+     */
+    void slide(final View view, float target, final boolean hide) {
+        if (mSliding && mSlideView == view && mSlideTarget == target)
+            return;
+
+        boolean hidden = view.getVisibility() == View.GONE;
+        if (!mSliding && view.getTranslationX() == target && hidden == hide)
+            return;
+
+        cancelSlide();
+        float distance = Math.abs(target - view.getTranslationX());
+        float width = view.getWidth();
+        long duration = width > 0 ? (long) (mSlideDuration * Math.min(1f, distance / width)) : mSlideDuration;
+
+        mSlideView = view;
+        mSlideTarget = target;
+        mSliding = true;
+        view.setVisibility(View.VISIBLE);
+        view.animate()
+                .translationX(target)
+                .setDuration(duration)
+                .withLayer()
+                .setListener(new AnimatorListenerAdapter() {
+                    private boolean mCanceled;
+
+                    @Override
+                    public void onAnimationCancel(Animator animation) {
+                        mCanceled = true;
+                    }
+
+                    @Override
+                    public void onAnimationEnd(Animator animation) {
+                        // A canceled slide was interrupted by the one now running.
+                        if (mCanceled)
+                            return;
+
+                        mSliding = false;
+                        if (hide)
+                            view.setVisibility(View.GONE);
+                    }
+                });
+    }
+
+    void cancelSlide() {
+        if (mSliding) {
+            mSliding = false;
+            mSlideView.animate().cancel();
+        }
+    }
+
+    /**
+     * Plays the IME animators of the stylists together. The same transition running is left to
+     * finish, the opposite one is canceled.
+     *
+     * @param entering  True when the IME appears.
+     * @param animators Animators provided by the stylists.
+     */
+    void playIme(boolean entering, List<Animator> animators) {
+        if (mImeSet != null && mImeSet.isStarted()) {
+            if (mImeEntering == entering)
+                return;
+
+            mImeSet.cancel();
+        }
+        mImeSet = null;
+        if (animators.isEmpty())
+            return;
+
+        final List<View> targets = new ArrayList<>();
+        collectTargets(animators, targets);
+
+        AnimatorSet set = new AnimatorSet();
+        set.playTogether(animators);
+        if (mImeDuration >= 0)
+            set.setDuration(mImeDuration);
+        set.addListener(new AnimatorListenerAdapter() {
+            private final List<View> mLayered = new ArrayList<>();
+
+            @Override
+            public void onAnimationStart(Animator animation) {
+                for (View target : targets) {
+                    if (target.getLayerType() == View.LAYER_TYPE_NONE) {
+                        target.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+                        mLayered.add(target);
+                    }
+                }
+            }
+
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                for (View target : mLayered)
+                    target.setLayerType(View.LAYER_TYPE_NONE, null);
+
+                mLayered.clear();
+            }
+        });
+
+        mImeEntering = entering;
+        mImeSet = set;
+        set.start();
+    }
+
+    /**
+     * Marks the expansion of an action as under way, until {@link #endExpand()}.
+     *
+     * @return False if that action is already being expanded.
+     */
+    boolean startExpand(GuidedAction action) {
+        long now = SystemClock.uptimeMillis();
+        if (mExpanding == action && now - mExpandStart < EXPAND_TIMEOUT)
+            return false;
+
+        mExpanding = action;
+        mExpandStart = now;
+        return true;
+    }
+
+    void endExpand() {
+        mExpanding = null;
+    }
+
+    /**
+     * Cancels the running transitions, leaving the views where they are.
+     */
+    void cancelAll() {
+        cancelSlide();
+        if (mImeSet != null) {
+            mImeSet.cancel();
+            mImeSet = null;
+        }
+        mSlideView = null;
+        mExpanding = null;
+    }
+
+    private static void collectTargets(List<Animator> animators, List<View> targets) {
+        for (Animator animator : animators) {
+            if (animator instanceof AnimatorSet) {
+                collectTargets(((AnimatorSet) animator).getChildAnimations(), targets);
+            } else if (animator instanceof ObjectAnimator) {
+                Object target = ((ObjectAnimator) animator).getTarget();
+                if (target instanceof View && !targets.contains(target))
+                    targets.add((View) target);
+            }
+        }
+    }
+}
@@ -24,6 +24,7 @@ import android.widget.Toast;
 
 import com.github.cpmproto.categorystepfragment.action.ActionCategory;
 import com.github.cpmproto.categorystepfragment.action.ActionElement;
+import com.github.cpmproto.categorystepfragment.action.CompositeActionCategory;
 import com.github.cpmproto.categorystepfragment.base.Category;
 import com.github.cpmproto.categorystepfragment.base.GuidedStepListFragment;
 import com.github.cpmproto.categorystepfragment.R;
@@ -31,6 +32,7 @@ import com.github.cpmproto.categorystepfragment.fragment.CategoryStepFragment;
 import com.github.cpmproto.categorystepfragment.fragment.StepClickListener;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class ExampleActivity extends Activity implements StepClickListener {
@@ -43,6 +45,7 @@ public class ExampleActivity extends Activity implements StepClickListener {
                 new Category("Category", "Select one", "All"));
 
         if (fragment != null) {
+            fragment.setCategorySwitchMode(GuidedStepListFragment.CATEGORY_SWITCH_DIFF);
             GuidedStepListFragment.addAsRoot(this, fragment, android.R.id.content);
         }
     }
@@ -91,12 +94,11 @@ public class ExampleActivity extends Activity implements StepClickListener {
                 "https://www.iconfinder.com/icons/682223/download/png/128"));
 
 
-        List<ActionElement> all = new ArrayList<>();
-        all.addAll(infantiles);
-        all.addAll(deportes);
-        actionCategories.add(new ActionCategory("All", all));
-        actionCategories.add(new ActionCategory("Skill", infantiles));
-        actionCategories.add(new ActionCategory("Social Networks", deportes));
+        ActionCategory skill = new ActionCategory("Skill", infantiles);
+        ActionCategory socialNetworks = new ActionCategory("Social Networks", deportes);
+        actionCategories.add(new CompositeActionCategory("All", Arrays.asList(skill, socialNetworks)));
+        actionCategories.add(skill);
+        actionCategories.add(socialNetworks);
 
         return actionCategories;
     }
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.cpmproto.categorystepfragment.fragment;
+
+import android.support.v17.leanback.widget.GuidedAction;
+
+import com.github.cpmproto.categorystepfragment.action.GuidedActionList;
+import com.github.cpmproto.categorystepfragment.util.LongIntHashMap;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Where the actions of each id are: the built list holding them and their position in it. An
+ * element shown by several categories has one occurrence per list, chained from its id, so an
+ * update reaches all of them without looking through the categories.
+ */
+final class ActionOccurrences {
+    private static final int NONE = -1;
+
+    private final LongIntHashMap mHeads = new LongIntHashMap();
+    private GuidedActionList[] mLists = new GuidedActionList[16];
+    private int[] mPositions = new int[16];
+    private int[] mNext = new int[16];
+    private int mCount;
+    private int mFree = NONE;
+
+    /**
+     * Records the actions of a list from a position to its end.
+     */
+    void add(GuidedActionList guidedActionList, int from) {
+        List<GuidedAction> actions = guidedActionList.getActions();
+        for (int position = from, size = actions.size(); position < size; position++) {
+            long id = actions.get(position).getId();
+            int occurrence = allocate();
+            mLists[occurrence] = guidedActionList;
+            mPositions[occurrence] = position;
+            mNext[occurrence] = mHeads.get(id, NONE);
+            mHeads.put(id, occurrence);
+        }
+    }
+
+    /**
+     * Forgets the actions of a list, before it is cleared or refilled.
+     */
+    void remove(GuidedActionList guidedActionList) {
+        List<GuidedAction> actions = guidedActionList.getActions();
+        for (int i = 0, size = actions.size(); i < size; i++) {
+            long id = actions.get(i).getId();
+            int previous = NONE;
+            int occurrence = mHeads.get(id, NONE);
+            while (occurrence != NONE) {
+                int next = mNext[occurrence];
+                if (mLists[occurrence] == guidedActionList) {
+                    if (previous == NONE)
+                        mHeads.put(id, next);
+                    else
+                        mNext[previous] = next;
+                    release(occurrence);
+                } else {
+                    previous = occurrence;
+                }
+                occurrence = next;
+            }
+            if (mHeads.get(id, NONE) == NONE)
+                mHeads.remove(id, NONE);
+        }
+    }
+
+    /**
+     * @return First occurrence of an id, or -1 if no built list holds it.
+     */
+    int first(long id) {
+        return mHeads.get(id, NONE);
+    }
+
+    /**
+     * @return Next occurrence of the same id, or -1.
+     */
+    int next(int occurrence) {
+        return mNext[occurrence];
+    }
+
+    GuidedAction actionAt(int occurrence) {
+        return mLists[occurrence].getActions().get(mPositions[occurrence]);
+    }
+
+    private int allocate() {
+        if (mFree != NONE) {
+            int occurrence = mFree;
+            mFree = mNext[occurrence];
+            return occurrence;
+        }
+        if (mCount == mLists.length) {
+            mLists = Arrays.copyOf(mLists, mCount * 2);
+            mPositions = Arrays.copyOf(mPositions, mCount * 2);
+            mNext = Arrays.copyOf(mNext, mCount * 2);
+        }
+        return mCount++;
+    }
+
+    private void release(int occurrence) {
+        mLists[occurrence] = null;
+        mNext[occurrence] = mFree;
+        mFree = occurrence;
+    }
+}
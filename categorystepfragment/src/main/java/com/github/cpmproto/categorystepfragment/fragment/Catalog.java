@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.cpmproto.categorystepfragment.fragment;
+
+import android.support.v17.leanback.widget.GuidedAction;
+
+import com.github.cpmproto.categorystepfragment.action.ActionCategory;
+import com.github.cpmproto.categorystepfragment.action.ActionElement;
+import com.github.cpmproto.categorystepfragment.action.CatalogView;
+import com.github.cpmproto.categorystepfragment.action.CatalogViews;
+import com.github.cpmproto.categorystepfragment.action.GuidedActionList;
+import com.github.cpmproto.categorystepfragment.util.LongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Categories and elements of the catalog, built together so a background build can be
+ * swapped in at once.
+ */
+final class Catalog {
+    final Map<String, CategorySlot> categorySlots = new HashMap<>();
+    final List<CategorySlot> slotOrder = new ArrayList<>();
+    final Map<ActionCategory, CategorySlot> slotsByCategory = new IdentityHashMap<>();
+    final LongIntHashMap elementPositions = new LongIntHashMap();
+    final List<ActionElement> elements = new ArrayList<>();
+    final ActionOccurrences occurrences = new ActionOccurrences();
+    // Updates of elements that are not registered, by id.
+    final Map<Long, ActionElement> pendingUpdates = new HashMap<>();
+    CatalogView view;
+    LongIntHashMap viewElements;
+    GuidedActionList searchList;
+    GuidedAction header;
+    final ChooserLevel rootLevel = new ChooserLevel(null);
+    ChooserLevel level = rootLevel;
+
+    void add(CategorySlot slot, ChooserLevel chooserLevel) {
+        slot.index = slotOrder.size();
+        slot.parent = chooserLevel.parent;
+        slot.levelPosition = chooserLevel.slots.size();
+        chooserLevel.slots.add(slot);
+
+        String key = slot.guidedActionList.getKey();
+        if (!categorySlots.containsKey(key))
+            categorySlots.put(key, slot);
+
+        slotOrder.add(slot);
+        slotsByCategory.put(slot.actionCategory, slot);
+    }
+
+    void registerElement(ActionElement actionElement) {
+        if (elementPositions.putIfAbsent(actionElement.getId(), elements.size()))
+            elements.add(actionElement);
+        else
+            elements.set(elementPositions.get(actionElement.getId(), 0), actionElement);
+    }
+
+    ActionElement findRegisteredElement(long id) {
+        int position = elementPositions.get(id, -1);
+        return position >= 0 ? elements.get(position) : null;
+    }
+
+    ActionElement findElementById(long id) {
+        int position = elementPositions.get(id, -1);
+        if (position >= 0)
+            return elements.get(position);
+
+        ActionElement update = pendingUpdates.get(id);
+        if (update != null)
+            return update;
+
+        int element = viewElements != null ? viewElements.get(id, -1) : -1;
+        return element >= 0 ? CatalogViews.getElement(view, element) : null;
+    }
+
+    String findImageUrlById(long id) {
+        int position = elementPositions.get(id, -1);
+        if (position >= 0)
+            return elements.get(position).getImageUrl();
+
+        ActionElement update = pendingUpdates.get(id);
+        if (update != null)
+            return update.getImageUrl();
+
+        int element = viewElements != null ? viewElements.get(id, -1) : -1;
+        return element >= 0 ? view.getImageUrl(element) : null;
+    }
+
+    /**
+     * Indexes the ids of a catalog view, whose elements are not registered one by one.
+     */
+    void setView(CatalogView catalogView) {
+        view = catalogView;
+        if (view == null)
+            return;
+
+        int count = view.getTotalElementCount();
+        viewElements = new LongIntHashMap(count);
+        for (int element = 0; element < count; element++)
+            viewElements.putIfAbsent(view.getId(element), element);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.cpmproto.categorystepfragment.fragment;
+
+import com.github.cpmproto.categorystepfragment.action.ActionCategory;
+import com.github.cpmproto.categorystepfragment.action.GuidedActionList;
+
+/**
+ * A category of the {@link Catalog}: its actions, how far they are built or loaded, and where
+ * it is listed in the category tree.
+ */
+final class CategorySlot {
+    final ActionCategory actionCategory;
+    final GuidedActionList guidedActionList;
+    final boolean holdsHeader;
+    // Index of the category in the catalog view, or -1 if it is built from its elements.
+    int viewCategory = -1;
+    boolean built;
+    boolean loadingPage;
+    boolean exhausted;
+    // Position in the catalog, and in the chooser level listing the category.
+    int index;
+    int levelPosition;
+    CategorySlot parent;
+    // Chooser level of the sub categories, once they are loaded.
+    ChooserLevel childLevel;
+    boolean loadingChildren;
+    // Parts of a composite category whose actions were added so far.
+    int partsBuilt;
+
+    CategorySlot(ActionCategory actionCategory, GuidedActionList guidedActionList, boolean holdsHeader) {
+        this.actionCategory = actionCategory;
+        this.guidedActionList = guidedActionList;
+        this.holdsHeader = holdsHeader;
+        this.exhausted = actionCategory.getCatalogSource() == null;
+    }
+}
@@ -17,35 +17,123 @@
 
 package com.github.cpmproto.categorystepfragment.fragment;
 
-import android.graphics.Bitmap;
-import android.graphics.drawable.BitmapDrawable;
+import android.content.Context;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.text.TextUtils;
 import android.support.annotation.NonNull;
 import android.support.v17.leanback.widget.GuidedAction;
+import android.support.v17.leanback.widget.VerticalGridView;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.View;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.request.animation.GlideAnimation;
-import com.bumptech.glide.request.target.SimpleTarget;
 import com.github.cpmproto.categorystepfragment.R;
 import com.github.cpmproto.categorystepfragment.action.ActionCategory;
 import com.github.cpmproto.categorystepfragment.action.ActionElement;
+import com.github.cpmproto.categorystepfragment.action.CatalogSource;
+import com.github.cpmproto.categorystepfragment.action.CatalogView;
+import com.github.cpmproto.categorystepfragment.action.CatalogViews;
+import com.github.cpmproto.categorystepfragment.action.CategorySource;
+import com.github.cpmproto.categorystepfragment.action.CompositeActionCategory;
 import com.github.cpmproto.categorystepfragment.action.GuidedActionList;
 import com.github.cpmproto.categorystepfragment.base.Category;
 import com.github.cpmproto.categorystepfragment.base.GuidedStepListFragment;
+import com.github.cpmproto.categorystepfragment.base.StepExecutors;
+import com.github.cpmproto.categorystepfragment.icon.IconCache;
+import com.github.cpmproto.categorystepfragment.icon.ViewportIconLoader;
+import com.github.cpmproto.categorystepfragment.search.CatalogSearchIndex;
+import com.github.cpmproto.categorystepfragment.util.LongIntHashMap;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class CategoryStepFragment extends GuidedStepListFragment {
     private static int CATEGORY_BUTTON_ID = 0;
+    private static final int DEFAULT_MAX_BUILT_CATEGORIES = 8;
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int DEFAULT_PREFETCH_DISTANCE = 20;
+    private static final int DEFAULT_SEARCH_LIMIT = 50;
+    private static final int DEFAULT_CHOOSER_PAGE_SIZE = 50;
     private List<ActionCategory> actionCategories;
+    private CatalogView catalogView;
     private String categoryTitle = "";
     private String categoryDescription = "";
     private String categoryKey = "";
     private StepClickListener callback;
+    private boolean lazyCategories = false;
+    private int maxBuiltCategories = DEFAULT_MAX_BUILT_CATEGORIES;
+    private Catalog catalog = new Catalog();
+    private volatile Catalog pendingCatalog;
+    private int idleBuildCursor;
+    private int iconLookAhead = -1;
+    private boolean opaqueIcons;
+    private boolean searchEnabled = false;
+    private String searchCategoryKey = "Search";
+    private int searchLimit = DEFAULT_SEARCH_LIMIT;
+    private CatalogSearchIndex searchIndex;
+    private List<Object> pendingSearchUpdates;
+    // Element updates posted while the catalog is built in the background, applied to it once
+    // it is swapped in.
+    private List<ActionElement> buildUpdates;
+    private String restoredCategoryKey;
+    private String pendingQuery;
+    private ViewportIconLoader iconLoader;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private int prefetchDistance = DEFAULT_PREFETCH_DISTANCE;
+    private int slotGeneration;
+    private VerticalGridView actionsGridView;
+    private VerticalGridView subActionsGridView;
 
-    private static int sSelectedCard = -1;
+    private final RecyclerView.OnScrollListener pageScrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            loadPageIfNearEnd(recyclerView);
+        }
+    };
+
+    private final LinkedHashMap<String, CategorySlot> builtCategories =
+            new LinkedHashMap<String, CategorySlot>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CategorySlot> eldest) {
+                    if (size() <= maxBuiltCategories)
+                        return false;
+
+                    releaseCategory(eldest.getValue());
+                    return true;
+                }
+            };
+
+    private final MessageQueue.IdleHandler idleCategoryBuilder = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            return buildNextIdleCategory();
+        }
+    };
+
+    private final ElementUpdates elementUpdates = new ElementUpdates(new ElementUpdates.Target() {
+        @Override
+        public void onElementUpdates(List<ActionElement> updates) {
+            applyElementUpdates(updates);
+        }
+    });
+
+    private int selectedCategory = 0;
+    private int chooserPageSize = DEFAULT_CHOOSER_PAGE_SIZE;
+
+    private final RecyclerView.OnScrollListener chooserScrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            if (recyclerView.getAdapter() != null
+                    && lastVisiblePosition(recyclerView) >= recyclerView.getAdapter().getItemCount() - 1 - prefetchDistance)
+                appendChooserPage();
+        }
+    };
 
     public static GuidedStepListFragment build(List<ActionCategory> actionCategories,
                                                StepClickListener stepClickListener,
@@ -60,8 +148,30 @@ public class CategoryStepFragment extends GuidedStepListFragment {
         return fragment;
     }
 
+    public static GuidedStepListFragment build(CatalogView catalogView,
+                                               StepClickListener stepClickListener,
+                                               Category category) {
+        CategoryStepFragment fragment = (CategoryStepFragment) build(
+                CatalogViews.toActionCategories(catalogView), stepClickListener, category);
+        fragment.setCatalogView(catalogView);
+        return fragment;
+    }
+
     public void setActionCategories(List<ActionCategory> actionCategories) {
         this.actionCategories = actionCategories;
+        this.catalogView = null;
+    }
+
+    /**
+     * Shows a catalog held in a {@link CatalogView}, such as a
+     * {@link com.github.cpmproto.categorystepfragment.action.CompactCatalog} or a
+     * {@link com.github.cpmproto.categorystepfragment.action.CatalogSnapshot}. Actions are
+     * built straight from the view and no ActionElement is kept per element. Combine with
+     * {@link #setLazyCategories(boolean)} so only the categories shown have GuidedActions.
+     */
+    public void setCatalogView(CatalogView catalogView) {
+        this.actionCategories = catalogView != null ? CatalogViews.toActionCategories(catalogView) : null;
+        this.catalogView = catalogView;
     }
 
     public void setCategoryTitle(String title) {
@@ -85,97 +195,958 @@ public class CategoryStepFragment extends GuidedStepListFragment {
         this.callback = stepClickListener;
     }
 
+    /**
+     * When enabled only the initially selected category gets its GuidedActions built in
+     * onCreate. The other categories are built on first selection, or while the main thread is
+     * idle, and at most {@link #setMaxBuiltCategories(int)} of them are kept built.
+     */
+    public void setLazyCategories(boolean lazyCategories) {
+        this.lazyCategories = lazyCategories;
+    }
+
+    public void setMaxBuiltCategories(int maxBuiltCategories) {
+        this.maxBuiltCategories = Math.max(1, maxBuiltCategories);
+    }
+
+    /**
+     * Icons are loaded for the visible rows plus this many rows ahead in the scroll direction.
+     */
+    public void setIconLookAhead(int rows) {
+        this.iconLookAhead = rows;
+        if (iconLoader != null)
+            iconLoader.setLookAhead(rows);
+    }
+
+    /**
+     * Number of elements requested per page from the {@link CatalogSource} of a category.
+     */
+    public void setCatalogPageSize(int pageSize) {
+        this.pageSize = Math.max(1, pageSize);
+    }
+
+    /**
+     * The next page of a paged category is requested once the last visible row is this close
+     * to the end of the loaded rows.
+     */
+    public void setPrefetchDistance(int rows) {
+        this.prefetchDistance = Math.max(0, rows);
+    }
+
+    /**
+     * When enabled a search index over the titles and sub descriptions of the catalog is built
+     * in the background, and {@link #search(String)} shows its results as an extra category.
+     * Must be set before the fragment is created.
+     */
+    public void setSearchEnabled(boolean searchEnabled) {
+        this.searchEnabled = searchEnabled;
+    }
+
+    /**
+     * @param key Key of the category showing the search results, also shown as its description.
+     */
+    public void setSearchCategoryKey(String key) {
+        this.searchCategoryKey = key;
+    }
+
+    /**
+     * Number of categories added to the category chooser at a time, as it is scrolled.
+     */
+    public void setChooserPageSize(int chooserPageSize) {
+        this.chooserPageSize = Math.max(1, chooserPageSize);
+    }
+
+    public void setSearchLimit(int searchLimit) {
+        this.searchLimit = Math.max(1, searchLimit);
+    }
+
+    /**
+     * Decodes icons as RGB_565, halving their memory. Only set it when every icon is opaque.
+     */
+    public void setOpaqueIcons(boolean opaqueIcons) {
+        this.opaqueIcons = opaqueIcons;
+    }
+
+    /**
+     * @return The icon cache shared by every CategoryStepFragment, with its hit/miss counts.
+     */
+    public IconCache getIconCache() {
+        return IconCache.getInstance(getActivity());
+    }
+
     @Override
     public int onProvideTheme() {
         return R.style.Theme_Example_LeanbackWizard;
     }
 
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        restoredCategoryKey = savedInstanceState != null ? savedInstanceState.getString(EXTRA_CATEGORY_KEY) : null;
+        super.onCreate(savedInstanceState);
+    }
+
+    /**
+     * Shows the category header alone while the catalog is built in the background. Updates
+     * posted meanwhile are kept for the catalog being built.
+     */
+    @Override
+    public void onCreatePlaceholderActions(@NonNull List<GuidedActionList> actions) {
+        buildUpdates = new ArrayList<>();
+        pendingSearchUpdates = new ArrayList<>();
+
+        GuidedAction header = createHeader();
+        header.setDescription(placeholderDescription());
+        List<GuidedAction> guidedActions = new ArrayList<>();
+        guidedActions.add(header);
+
+        String key = actionCategories != null && !actionCategories.isEmpty()
+                ? actionCategories.get(0).getCategory() : "";
+        actions.add(new GuidedActionList(key, guidedActions));
+    }
+
+    /**
+     * @return The description the real header will show: the restored category key, or the step's.
+     */
+    private String placeholderDescription() {
+        if (TextUtils.isEmpty(restoredCategoryKey) || restoredCategoryKey.equals(firstElementKeys)
+                || actionCategories == null)
+            return categoryDescription;
+
+        for (ActionCategory actionCategory : actionCategories) {
+            if (restoredCategoryKey.equals(actionCategory.getCategory()))
+                return restoredCategoryKey;
+        }
+        return categoryDescription;
+    }
+
+    /**
+     * Builds the catalog aside, as this may run on a background thread. It replaces the current
+     * one in {@link #onActionsCreated(List)}.
+     */
     @Override
     public void onCreateActions(@NonNull List<GuidedActionList> actions, Bundle savedInstanceState) {
-        List<GuidedAction> subActions = new ArrayList();
+        GuidedAction header = createHeader();
         List<GuidedAction> guidedActions = new ArrayList();
+        guidedActions.add(header);
+
+        if (actionCategories == null)
+            return;
+
+        Catalog built = new Catalog();
+        built.header = header;
+        header.setSubActions(built.rootLevel.rows);
+        built.setView(catalogView);
+        for (final ActionCategory actionCategory : actionCategories) {
+            GuidedActionList guidedActionList = new GuidedActionList(actionCategory.getCategory(), guidedActions);
+            CategorySlot slot = new CategorySlot(actionCategory, guidedActionList, actions.isEmpty());
+            if (built.view != null)
+                slot.viewCategory = built.slotOrder.size();
+            built.add(slot, built.rootLevel);
+
+            if (!lazyCategories && !(actionCategory instanceof CompositeActionCategory))
+                buildCategory(built, slot);
+
+            actions.add(guidedActionList);
+            guidedActions = new ArrayList();
+        }
+
+        // Composite categories borrow the actions of their parts, built above.
+        if (!lazyCategories) {
+            for (CategorySlot slot : built.slotOrder) {
+                if (slot.actionCategory instanceof CompositeActionCategory)
+                    buildCategory(built, slot);
+            }
+        }
+
+        if (searchEnabled && !actions.isEmpty()) {
+            built.searchList = new GuidedActionList(searchCategoryKey, new ArrayList<GuidedAction>());
+            actions.add(built.searchList);
+        }
+        pendingCatalog = built;
+    }
+
+    @Override
+    public void onActionsCreated(@NonNull List<GuidedActionList> actions) {
+        Catalog built = pendingCatalog;
+        if (built == null)
+            return;
+
+        pendingCatalog = null;
+        catalog = built;
+        slotGeneration++;
+        builtCategories.clear();
+        idleBuildCursor = 0;
+        List<ActionElement> updates = buildUpdates;
+        buildUpdates = null;
+
+        // The category restored from the saved state is the one checked in the chooser.
+        CategorySlot current = findSlot(getCurrentCategoryKey());
+        if (current != null)
+            selectedCategory = catalog.slotOrder.indexOf(current);
+
+        if (lazyCategories && !catalog.slotOrder.isEmpty()) {
+            // The first category is the one shown when the fragment appears.
+            prepareCategory(catalog.slotOrder.get(0));
+            Looper.myQueue().removeIdleHandler(idleCategoryBuilder);
+            Looper.myQueue().addIdleHandler(idleCategoryBuilder);
+        }
+
+        // The chooser was filled on the placeholder header if the fragment resumed meanwhile.
+        if (isResumed())
+            updateCategoryChooser();
+
+        if (updates != null && !updates.isEmpty())
+            applyElementUpdates(updates);
+
+        if (catalog.searchList != null)
+            buildSearchIndex();
+        else
+            pendingSearchUpdates = null;
+    }
+
+    private void buildSearchIndex() {
+        final int generation = slotGeneration;
+        final CatalogView view = catalog.view;
+        final List<List<ActionElement>> sources = new ArrayList<>();
+        for (CategorySlot slot : catalog.slotOrder) {
+            // The elements of a composite category are indexed through its parts, the ones of
+            // a view straight from its columns.
+            if (slot.actionCategory instanceof CompositeActionCategory || slot.viewCategory >= 0)
+                continue;
+
+            List<ActionElement> actionElements = slot.actionCategory.getActionElements();
+
+            // Paged categories keep growing on the main thread, index what is loaded so far.
+            sources.add(slot.actionCategory.getCatalogSource() != null
+                    ? new ArrayList<>(actionElements) : actionElements);
+        }
+
+        // Updates queued while the catalog was built are applied with the ones made meanwhile.
+        searchIndex = null;
+        if (pendingSearchUpdates == null)
+            pendingSearchUpdates = new ArrayList<>();
+        StepExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                final CatalogSearchIndex index = new CatalogSearchIndex();
+                if (view != null)
+                    index.putAll(view);
+
+                for (List<ActionElement> actionElements : sources)
+                    index.putAll(actionElements);
+
+                StepExecutors.main().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != slotGeneration)
+                            return;
 
-        GuidedAction action = new GuidedAction.Builder(getActivity())
+                        // Apply the updates made during the build, in order.
+                        for (Object update : pendingSearchUpdates) {
+                            if (update instanceof ActionElement)
+                                index.put((ActionElement) update);
+                            else
+                                index.remove((Long) update);
+                        }
+                        pendingSearchUpdates = null;
+                        searchIndex = index;
+
+                        if (pendingQuery != null)
+                            search(pendingQuery);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Shows the elements matching the query in the search category. Meant to be called as
+     * every character is typed: a query extending the previous one narrows its results. A
+     * query made before the index is ready runs once it is.
+     *
+     * @param query The query as typed.
+     */
+    public void search(String query) {
+        GuidedActionList searchList = catalog.searchList;
+        if (searchList == null)
+            return;
+
+        if (searchIndex == null) {
+            pendingQuery = query;
+            return;
+        }
+        pendingQuery = null;
+
+        List<ActionElement> found = searchIndex.search(query, searchLimit);
+        List<GuidedAction> results = searchList.getActions();
+
+        // Rows still matching keep their GuidedAction, so the diff switch leaves them alone.
+        LongIntHashMap previous = new LongIntHashMap(results.size());
+        for (int i = 0, size = results.size(); i < size; i++)
+            previous.putIfAbsent(results.get(i).getId(), i);
+
+        List<GuidedAction> matched = new ArrayList<>(found.size());
+        for (ActionElement actionElement : found) {
+            int position = previous.get(actionElement.getId(), -1);
+            if (position >= 0) {
+                catalog.registerElement(actionElement);
+                matched.add(results.get(position));
+            } else {
+                buildActions(catalog, Collections.singletonList(actionElement), matched);
+            }
+        }
+
+        catalog.occurrences.remove(searchList);
+        results.clear();
+        results.addAll(matched);
+        catalog.occurrences.add(searchList, 0);
+        notifyActionListChanged(searchList.getKey());
+        switchCategory(searchList.getKey());
+    }
+
+    /**
+     * Empties the search category and, if it is shown, goes back to the first category.
+     */
+    public void clearSearch() {
+        GuidedActionList searchList = catalog.searchList;
+        pendingQuery = null;
+        if (searchList == null)
+            return;
+
+        catalog.occurrences.remove(searchList);
+        searchList.getActions().clear();
+        notifyActionListChanged(searchList.getKey());
+        if (searchList.getKey().equals(getCurrentCategoryKey()))
+            switchCategory("");
+    }
+
+    /**
+     * Posts the new state of an element, such as a live count or price, from any thread. Updates
+     * to the same id are collapsed until the next frame, where the element and the actions
+     * showing it in every category are updated. Only the rows bound to those actions are
+     * rebound; the others pick the change up when they are.
+     *
+     * @param update New state of the element, with its id. It must not be modified once posted.
+     */
+    public void postElementUpdate(ActionElement update) {
+        elementUpdates.post(update);
+    }
+
+    /**
+     * Updates built elements in place; the others keep their update until their category is
+     * built. Updates made during a background build wait for the new catalog.
+     */
+    private void applyElementUpdates(List<ActionElement> updates) {
+        if (buildUpdates != null) {
+            buildUpdates.addAll(updates);
+            return;
+        }
+
+        boolean iconsChanged = false;
+        for (ActionElement update : updates) {
+            long id = update.getId();
+            boolean iconChanged = !TextUtils.equals(catalog.findImageUrlById(id), update.getImageUrl());
+            ActionElement element = catalog.findRegisteredElement(id);
+            if (element != null) {
+                // Categories share the registered instance, they all see the new state.
+                if (element != update)
+                    copyElement(update, element);
+                updateSearchElement(element);
+            } else {
+                catalog.pendingUpdates.put(id, update);
+            }
+
+            for (int occurrence = catalog.occurrences.first(id); occurrence >= 0;
+                 occurrence = catalog.occurrences.next(occurrence)) {
+                GuidedAction action = catalog.occurrences.actionAt(occurrence);
+                action.setTitle(update.getDescription());
+                action.setDescription(update.getSubDescription());
+                if (iconChanged && iconLoader != null) {
+                    iconLoader.invalidate(action);
+                    iconsChanged = true;
+                }
+            }
+            notifyActionChangedById(id);
+        }
+
+        if (iconsChanged && iconLoader != null)
+            iconLoader.update();
+    }
+
+    private static void copyElement(ActionElement from, ActionElement to) {
+        to.setDescription(from.getDescription());
+        to.setSubDescription(from.getSubDescription());
+        to.setImageUrl(from.getImageUrl());
+        to.setObject(from.getObject());
+    }
+
+    /**
+     * Indexes a new or changed element for search.
+     */
+    public void updateSearchElement(ActionElement actionElement) {
+        if (searchIndex != null)
+            searchIndex.put(actionElement);
+        else if (pendingSearchUpdates != null)
+            pendingSearchUpdates.add(actionElement);
+    }
+
+    /**
+     * Removes an element from the search index.
+     */
+    public void removeSearchElement(long id) {
+        if (searchIndex != null)
+            searchIndex.remove(id);
+        else if (pendingSearchUpdates != null)
+            pendingSearchUpdates.add(id);
+    }
+
+    private GuidedAction createHeader() {
+        return new GuidedAction.Builder(getActivity())
                 .id(CATEGORY_BUTTON_ID)
                 .title(categoryTitle)
                 .description(categoryDescription)
-                .subActions(subActions)
+                .subActions(new ArrayList<GuidedAction>())
                 .build();
+    }
+
+    @Override
+    public void onViewCreated(View view, Bundle savedInstanceState) {
+        super.onViewCreated(view, savedInstanceState);
+        VerticalGridView gridView = getGuidedActionsStylist().getActionsGridView();
 
-        guidedActions.add(action);
+        // The grid is inflated with the step theme, which defines the icon view size.
+        int[] iconSize = IconCache.resolveIconSize(gridView.getContext());
+        IconCache.DecodeOptions decodeOptions = new IconCache.DecodeOptions(iconSize[0], iconSize[1], opaqueIcons);
 
-        if (actionCategories == null)
+        iconLoader = new ViewportIconLoader(getIconCache(), decodeOptions, new ViewportIconLoader.IconSource() {
+            @Override
+            public String getIconUrl(GuidedAction action) {
+                return catalog.findImageUrlById(action.getId());
+            }
+
+            @Override
+            public void onIconLoaded(GuidedAction action, Drawable icon) {
+                action.setIcon(icon);
+                notifyActionChangedById(action.getId());
+            }
+
+            @Override
+            public void onIconReleased(GuidedAction action) {
+                action.setIcon(null);
+                notifyActionChangedById(action.getId());
+            }
+        });
+
+        if (iconLookAhead >= 0)
+            iconLoader.setLookAhead(iconLookAhead);
+
+        iconLoader.setMetrics(getMetrics());
+        iconLoader.attach(gridView);
+
+        actionsGridView = gridView;
+        actionsGridView.addOnScrollListener(pageScrollListener);
+        subActionsGridView = getGuidedActionsStylist().getSubActionsGridView();
+        if (subActionsGridView != null)
+            subActionsGridView.addOnScrollListener(chooserScrollListener);
+        CategorySlot slot = findSlot(getCurrentCategoryKey());
+        if (slot != null && slot.actionCategory.getActionElements().isEmpty())
+            loadNextPage(slot);
+    }
+
+    @Override
+    public void onDestroyView() {
+        if (iconLoader != null) {
+            iconLoader.detach();
+            iconLoader = null;
+        }
+        if (actionsGridView != null) {
+            actionsGridView.removeOnScrollListener(pageScrollListener);
+            actionsGridView = null;
+        }
+        if (subActionsGridView != null) {
+            subActionsGridView.removeOnScrollListener(chooserScrollListener);
+            subActionsGridView = null;
+        }
+        super.onDestroyView();
+    }
+
+    @Override
+    protected void onFastScrollChanged(boolean fastScrolling) {
+        if (iconLoader != null)
+            iconLoader.setPaused(fastScrolling);
+    }
+
+    @Override
+    public void onPrepareCategory(String key) {
+        CategorySlot slot = findSlot(key);
+        if (slot == null)
             return;
 
-        for (final ActionCategory actionCategory : actionCategories) {
-            for (final ActionElement actionElement : actionCategory.getActionElements()) {
-                action = new GuidedAction.Builder(getActivity())
-                        .id(actionElement.getId())
-                        .title(actionElement.getDescription())
-                        .description(actionElement.getSubDescription())
-                        .build();
-
-                final GuidedAction finalAction = action;
-
-                Glide.with(getActivity())
-                        .load(actionElement.getImageUrl())
-                        .asBitmap()
-                        .centerCrop()
-                        .error(null)
-                        .into(new SimpleTarget<Bitmap>() {
-                            @Override
-                            public void onResourceReady(Bitmap resource, GlideAnimation<? super Bitmap> glideAnimation) {
-                                if (resource != null) {
-                                    Drawable drawable = new BitmapDrawable(resource);
-                                    finalAction.setIcon(drawable);
-                                    notifyActionChanged(actionElement.getId());
-                                }
-                            }
-                        });
-                guidedActions.add(finalAction);
-            }
-
-            actions.add(new GuidedActionList(actionCategory.getCategory(), guidedActions));
-            guidedActions = new ArrayList();
+        if (lazyCategories)
+            prepareCategory(slot);
+
+        // The rest of the pages follow as the user scrolls.
+        if (slot.actionCategory.getActionElements().isEmpty())
+            loadNextPage(slot);
+    }
+
+    private CategorySlot findSlot(String key) {
+        if (key == null || key.isEmpty())
+            return catalog.slotOrder.isEmpty() ? null : catalog.slotOrder.get(0);
+
+        return catalog.categorySlots.get(key);
+    }
+
+    private void loadPageIfNearEnd(RecyclerView recyclerView) {
+        CategorySlot slot = findSlot(getCurrentCategoryKey());
+        if (slot == null || slot.exhausted || slot.loadingPage || recyclerView.getAdapter() == null)
+            return;
+
+        if (lastVisiblePosition(recyclerView) >= recyclerView.getAdapter().getItemCount() - 1 - prefetchDistance)
+            loadNextPage(slot);
+    }
+
+    private static int lastVisiblePosition(RecyclerView recyclerView) {
+        int last = 0;
+        for (int i = 0, children = recyclerView.getChildCount(); i < children; i++)
+            last = Math.max(last, recyclerView.getChildAdapterPosition(recyclerView.getChildAt(i)));
+
+        return last;
+    }
+
+    /**
+     * Requests the next page of a paged category on a background thread. The page is appended
+     * to the category, and to the shown rows as a range insert, once it arrives.
+     */
+    private void loadNextPage(final CategorySlot slot) {
+        if (slot.exhausted || slot.loadingPage)
+            return;
+
+        if (slot.actionCategory instanceof CompositeActionCategory) {
+            appendCompositePage(slot);
+            return;
+        }
+
+        final CatalogSource source = slot.actionCategory.getCatalogSource();
+        final int offset = slot.actionCategory.getActionElements().size();
+        final int size = pageSize;
+        final int generation = slotGeneration;
+        slot.loadingPage = true;
+
+        StepExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                List<ActionElement> page = null;
+                try {
+                    page = source.loadPage(offset, size);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Failed to load page " + offset + " of " + slot.guidedActionList.getKey(), e);
+                }
+
+                final List<ActionElement> loaded = page;
+                StepExecutors.main().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageLoaded(slot, generation, offset, size, loaded);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onPageLoaded(CategorySlot slot, int generation, int offset, int size,
+                              List<ActionElement> page) {
+        slot.loadingPage = false;
+
+        // Failed pages are requested again on the next scroll.
+        List<ActionElement> actionElements = slot.actionCategory.getActionElements();
+        if (generation != slotGeneration || page == null || actionElements.size() != offset)
+            return;
+
+        actionElements.addAll(page);
+        if (page.size() < size)
+            slot.exhausted = true;
+
+        for (ActionElement actionElement : page)
+            updateSearchElement(actionElement);
+
+        // Categories that are not built pick the page up when they are.
+        if (!slot.built || page.isEmpty())
+            return;
+
+        List<GuidedAction> added = new ArrayList<>(page.size());
+        buildActions(catalog, page, added);
+        int from = slot.guidedActionList.getActions().size();
+        slot.guidedActionList.getActions().addAll(added);
+        catalog.occurrences.add(slot.guidedActionList, from);
+        notifyActionsAppended(slot.guidedActionList.getKey(), added);
+    }
+
+    @Override
+    public void onDestroy() {
+        Looper.myQueue().removeIdleHandler(idleCategoryBuilder);
+        elementUpdates.cancel();
+        super.onDestroy();
+    }
+
+    private void prepareCategory(CategorySlot slot) {
+        if (slot.built) {
+            builtCategories.get(slot.guidedActionList.getKey());
+            return;
+        }
+
+        buildCategory(catalog, slot);
+        builtCategories.put(slot.guidedActionList.getKey(), slot);
+        notifyActionListChanged(slot.guidedActionList.getKey());
+    }
+
+    /**
+     * @return True to be called again on the next idle pass, until the LRU of built categories is full.
+     */
+    private boolean buildNextIdleCategory() {
+        if (!lazyCategories || getActivity() == null || isRemoving())
+            return false;
+
+        while (idleBuildCursor < catalog.slotOrder.size()) {
+            if (builtCategories.size() >= maxBuiltCategories)
+                return false;
+
+            CategorySlot slot = catalog.slotOrder.get(idleBuildCursor++);
+            if (!slot.built) {
+                prepareCategory(slot);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Icons are requested by the ViewportIconLoader as rows come close to the visible window.
+     */
+    private void buildCategory(Catalog target, CategorySlot slot) {
+        if (slot.actionCategory instanceof CompositeActionCategory)
+            buildCompositeActions(target, slot, slot.guidedActionList.getActions(),
+                    lazyCategories ? pageSize : Integer.MAX_VALUE);
+        else if (slot.viewCategory >= 0)
+            buildViewActions(target, slot.viewCategory, slot.guidedActionList.getActions());
+        else
+            buildActions(target, slot.actionCategory.getActionElements(), slot.guidedActionList.getActions());
+        target.occurrences.add(slot.guidedActionList, slot.holdsHeader ? 1 : 0);
+        slot.built = true;
+    }
+
+    /**
+     * Adds the next parts of a composite category, at least the given number of rows. Built parts
+     * lend their GuidedActions, the others get actions of their own.
+     */
+    private void buildCompositeActions(Catalog target, CategorySlot slot,
+                                       List<GuidedAction> guidedActions, int rows) {
+        List<ActionCategory> parts = ((CompositeActionCategory) slot.actionCategory).getParts();
+        int start = guidedActions.size();
+        while (slot.partsBuilt < parts.size() && guidedActions.size() - start < rows) {
+            ActionCategory part = parts.get(slot.partsBuilt++);
+            CategorySlot partSlot = target.slotsByCategory.get(part);
+            if (partSlot != null && partSlot.built) {
+                List<GuidedAction> partActions = partSlot.guidedActionList.getActions();
+                guidedActions.addAll(partActions.subList(partSlot.holdsHeader ? 1 : 0, partActions.size()));
+            } else if (partSlot != null && partSlot.viewCategory >= 0) {
+                buildViewActions(target, partSlot.viewCategory, guidedActions);
+            } else {
+                buildActions(target, part.getActionElements(), guidedActions);
+            }
+        }
+        slot.exhausted = slot.partsBuilt == parts.size();
+    }
+
+    /**
+     * Appends the next page of parts to a composite category that is shown.
+     */
+    private void appendCompositePage(CategorySlot slot) {
+        if (!slot.built)
+            return;
+
+        List<GuidedAction> added = new ArrayList<>(pageSize);
+        buildCompositeActions(catalog, slot, added, pageSize);
+        if (added.isEmpty())
+            return;
+
+        int from = slot.guidedActionList.getActions().size();
+        slot.guidedActionList.getActions().addAll(added);
+        catalog.occurrences.add(slot.guidedActionList, from);
+        notifyActionsAppended(slot.guidedActionList.getKey(), added);
+    }
+
+    /**
+     * Builds the actions of a category of the catalog view, reading the fields of each element
+     * straight from the view, unless an update was posted for it.
+     */
+    private void buildViewActions(Catalog target, int category, List<GuidedAction> guidedActions) {
+        Context context = getActivity();
+        CatalogView view = target.view;
+        int first = view.getFirstElement(category);
+        int end = first + view.getElementCount(category);
+        for (int element = first; element < end; element++) {
+            int id = view.getId(element);
+            ActionElement update = target.pendingUpdates.isEmpty() ? null : target.pendingUpdates.get((long) id);
+            guidedActions.add(new GuidedAction.Builder(context)
+                    .id(id)
+                    .title(update != null ? update.getDescription() : view.getDescription(element))
+                    .description(update != null ? update.getSubDescription() : view.getSubDescription(element))
+                    .build());
         }
     }
 
+    private void buildActions(Catalog target, List<ActionElement> actionElements,
+                              List<GuidedAction> guidedActions) {
+        Context context = getActivity();
+        for (ActionElement actionElement : actionElements) {
+            // Updates posted before the category was built land on its element now.
+            ActionElement update = target.pendingUpdates.isEmpty() ? null
+                    : target.pendingUpdates.remove((long) actionElement.getId());
+            if (update != null) {
+                copyElement(update, actionElement);
+                updateSearchElement(actionElement);
+            }
+
+            GuidedAction action = new GuidedAction.Builder(context)
+                    .id(actionElement.getId())
+                    .title(actionElement.getDescription())
+                    .description(actionElement.getSubDescription())
+                    .build();
+
+            target.registerElement(actionElement);
+            guidedActions.add(action);
+        }
+    }
+
+    /**
+     * @return The element of the catalog with the given id, once its category was built or an
+     * update was posted for it. Elements of a catalog view are read from it, as a new
+     * ActionElement.
+     */
+    public ActionElement findElementById(long id) {
+        return catalog.findElementById(id);
+    }
+
+    /**
+     * Drops the GuidedActions of a category evicted from the LRU, keeping the header of the
+     * first category.
+     */
+    private void releaseCategory(CategorySlot slot) {
+        List<GuidedAction> guidedActions = slot.guidedActionList.getActions();
+        catalog.occurrences.remove(slot.guidedActionList);
+        guidedActions.subList(slot.holdsHeader ? 1 : 0, guidedActions.size()).clear();
+        slot.partsBuilt = 0;
+        slot.built = false;
+        notifyActionListChanged(slot.guidedActionList.getKey());
+    }
+
     @Override
     public void onResume() {
         super.onResume();
-        GuidedAction payment = findActionById(0, getCategoryKey());
+        updateCategoryChooser();
+    }
 
-        if (payment == null)
+    /**
+     * The chooser sub actions are built once per catalog, a page at a time as the chooser is
+     * scrolled. Resuming only moves the checked state to the selected category.
+     */
+    private void updateCategoryChooser() {
+        GuidedAction header = catalog.header;
+        if (header == null || header.getSubActions() == null)
             return;
 
-        List<GuidedAction> paymentSubActions = payment.getSubActions();
+        ChooserLevel level = catalog.level;
+        if (level.count == 0)
+            appendChooserPage();
 
-        if (paymentSubActions != null)
-            paymentSubActions.clear();
+        checkChooserRow(level, rowOf(level, selectedCategory));
 
-        for (int i = 0; i < actionCategories.size(); i++) {
-            paymentSubActions.add(new GuidedAction.Builder(getActivity())
-                    .title(actionCategories.get(i).getCategory())
-                    .description("")
-                    .checkSetId(GuidedAction.DEFAULT_CHECK_SET_ID)
-                    .checked(i == 0)
-                    .build()
-            );
+        if (selectedCategory > 0 && selectedCategory < catalog.slotOrder.size()) {
+            header.setDescription(catalog.slotOrder.get(selectedCategory).guidedActionList.getKey());
+            notifyActionChangedById(CATEGORY_BUTTON_ID);
         }
+    }
+
+    /**
+     * Moves the check of a chooser level, binding again the row unchecked if it is shown.
+     */
+    private void checkChooserRow(ChooserLevel level, int row) {
+        int unchecked = level.check(row);
+        if (unchecked >= 0 && level == catalog.level)
+            notifySubActionChanged(catalog.header, unchecked);
+    }
+
+    /**
+     * Adds the next page of categories of the current level to the chooser.
+     */
+    private void appendChooserPage() {
+        GuidedAction header = catalog.header;
+        if (header == null)
+            return;
+
+        List<GuidedAction> added = catalog.level.appendPage(getActivity(), chooserPageSize,
+                slotAt(selectedCategory), getString(R.string.category_step_up));
+        if (!added.isEmpty())
+            notifySubActionsAppended(header, added);
+    }
+
+    private int rowOf(ChooserLevel level, int index) {
+        return level.rowOf(slotAt(index));
+    }
 
-        if (sSelectedCard >= 0 && sSelectedCard < actionCategories.size())
-            payment.setDescription(actionCategories.get(sSelectedCard).getCategory());
+    private CategorySlot slotAt(int index) {
+        return index >= 0 && index < catalog.slotOrder.size() ? catalog.slotOrder.get(index) : null;
     }
 
+    /**
+     * Lists another level of the category tree in the chooser. Its rows are kept from the last
+     * time it was shown.
+     */
+    private void showChooserLevel(ChooserLevel level) {
+        catalog.level = level;
+        catalog.header.setSubActions(level.rows);
+        notifySubActionsChanged(catalog.header);
+        updateCategoryChooser();
+    }
+
+    private ChooserLevel levelOf(CategorySlot slot) {
+        return slot.parent != null ? slot.parent.childLevel : catalog.rootLevel;
+    }
+
+    /**
+     * Lists the sub categories of a category in the chooser, loading them on a background
+     * thread the first time.
+     */
+    private void openCategory(final CategorySlot slot) {
+        if (slot.childLevel == null && slot.actionCategory.getChildren() != null)
+            addChildren(slot, slot.actionCategory.getChildren());
+
+        if (slot.childLevel != null) {
+            showChooserLevel(slot.childLevel);
+            return;
+        }
+        if (slot.loadingChildren)
+            return;
+
+        final CategorySource source = slot.actionCategory.getChildSource();
+        final int generation = slotGeneration;
+        slot.loadingChildren = true;
+
+        StepExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                List<ActionCategory> children = null;
+                try {
+                    children = source.loadChildren(slot.actionCategory);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Failed to load the sub categories of " + slot.guidedActionList.getKey(), e);
+                }
+
+                final List<ActionCategory> loaded = children;
+                StepExecutors.main().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onChildrenLoaded(slot, generation, loaded);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onChildrenLoaded(CategorySlot slot, int generation, List<ActionCategory> children) {
+        slot.loadingChildren = false;
+
+        // Failed loads are requested again the next time the category is opened.
+        if (generation != slotGeneration || children == null || slot.childLevel != null)
+            return;
+
+        slot.actionCategory.setChildren(children);
+        addChildren(slot, children);
+
+        // The user may have moved on while the sub categories were loading.
+        if (catalog.level == levelOf(slot) && selectedCategory == slot.index)
+            showChooserLevel(slot.childLevel);
+    }
+
+    /**
+     * Adds the sub categories of a category to the catalog and to the categories of the
+     * fragment. The categories already built, and their lists, are left as they are.
+     */
+    private void addChildren(CategorySlot parent, List<ActionCategory> children) {
+        ChooserLevel level = new ChooserLevel(parent);
+        List<GuidedActionList> added = new ArrayList<>(children.size());
+        for (ActionCategory child : children) {
+            CategorySlot slot = new CategorySlot(child,
+                    new GuidedActionList(child.getCategory(), new ArrayList<GuidedAction>()), false);
+            catalog.add(slot, level);
+            added.add(slot.guidedActionList);
+
+            if (!lazyCategories && !(child instanceof CompositeActionCategory))
+                buildCategory(catalog, slot);
+
+            // Elements of a composite category are indexed through its parts.
+            if (!(child instanceof CompositeActionCategory)) {
+                for (ActionElement actionElement : child.getActionElements())
+                    updateSearchElement(actionElement);
+            }
+        }
+
+        if (!lazyCategories) {
+            for (CategorySlot slot : level.slots) {
+                if (slot.actionCategory instanceof CompositeActionCategory)
+                    buildCategory(catalog, slot);
+            }
+        }
+
+        parent.childLevel = level;
+        addActionLists(added);
+    }
+
+    /**
+     * Chooser sub actions carry the position of their category in the catalog as id. The row
+     * leading up a level only changes the chooser, the category shown is not switched.
+     */
+    @Override
+    public String onProvideCategoryKey(GuidedAction subAction) {
+        long index = subAction.getId();
+        if (index == ChooserLevel.UP_ID)
+            return null;
+
+        if (index >= 0 && index < catalog.slotOrder.size())
+            return catalog.slotOrder.get((int) index).guidedActionList.getKey();
+
+        return super.onProvideCategoryKey(subAction);
+    }
+
+    /**
+     * Categories with sub categories show their own actions and open their sub categories in
+     * the chooser, which stays expanded.
+     */
     @Override
     public boolean onSubGuidedActionClicked(GuidedAction action) {
+        if (action.getId() == ChooserLevel.UP_ID && catalog.level.parent != null) {
+            showChooserLevel(levelOf(catalog.level.parent));
+            return false;
+        }
+
         if (action.isChecked()) {
+            CategorySlot slot = null;
+            if (action.getId() >= 0 && action.getId() < catalog.slotOrder.size()) {
+                selectedCategory = (int) action.getId();
+                slot = catalog.slotOrder.get(selectedCategory);
+                checkChooserRow(catalog.level, rowOf(catalog.level, selectedCategory));
+            }
+
             findActionById(CATEGORY_BUTTON_ID, getCategoryKey()).setDescription(getCategoryKey());
-            notifyActionChanged(findActionPositionById(CATEGORY_BUTTON_ID, getCategoryKey()));
+            notifyActionChangedById(CATEGORY_BUTTON_ID);
 
             if (callback != null)
                 callback.onSubGuidedActionClicked(action);
 
+            if (slot != null && slot.actionCategory.hasChildren()) {
+                openCategory(slot);
+                return false;
+            }
             return true;
         } else {
             return false;
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.cpmproto.categorystepfragment.fragment;
+
+import android.content.Context;
+import android.support.v17.leanback.widget.GuidedAction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rows of the chooser for one level of the category tree, built a page at a time and kept
+ * with the catalog so moving up and down the tree does not build them again.
+ */
+final class ChooserLevel {
+    // Id of the row leading up a level.
+    static final int UP_ID = -2;
+
+    // Category whose sub categories are listed, or null for the top level.
+    final CategorySlot parent;
+    final List<CategorySlot> slots = new ArrayList<>();
+    final List<GuidedAction> rows = new ArrayList<>();
+    int count;
+    int checked = -1;
+
+    ChooserLevel(CategorySlot parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * @return Row of the first category, after the row leading up if there is one.
+     */
+    int firstRow() {
+        return parent != null ? 1 : 0;
+    }
+
+    /**
+     * @return Row of a category, or -1 if it is listed in another level.
+     */
+    int rowOf(CategorySlot slot) {
+        return slot != null && slot.parent == parent ? firstRow() + slot.levelPosition : -1;
+    }
+
+    /**
+     * Appends the rows of the next categories of the level. Sub action ids are the positions of
+     * their categories in the catalog.
+     *
+     * @param upTitle Title of the row leading up, added before the first page.
+     * @return The rows added, none once every category is listed.
+     */
+    List<GuidedAction> appendPage(Context context, int pageSize, CategorySlot selected, String upTitle) {
+        int from = count;
+        int to = Math.min(slots.size(), from + pageSize);
+        if (from >= to)
+            return Collections.emptyList();
+
+        List<GuidedAction> added = new ArrayList<>(to - from + 1);
+        if (from == 0 && parent != null) {
+            added.add(new GuidedAction.Builder(context)
+                    .id(UP_ID)
+                    .title(upTitle)
+                    .description(parent.guidedActionList.getKey())
+                    .build()
+            );
+        }
+        for (int i = from; i < to; i++) {
+            CategorySlot slot = slots.get(i);
+            added.add(new GuidedAction.Builder(context)
+                    .id(slot.index)
+                    .title(slot.guidedActionList.getKey())
+                    .description("")
+                    .checkSetId(GuidedAction.DEFAULT_CHECK_SET_ID)
+                    .checked(slot == selected)
+                    .hasNext(slot.actionCategory.hasChildren())
+                    .build()
+            );
+        }
+
+        int row = rowOf(selected);
+        if (row >= firstRow() + from && row < firstRow() + to)
+            checked = row;
+
+        count = to;
+        rows.addAll(added);
+        return added;
+    }
+
+    /**
+     * Moves the check to another row.
+     *
+     * @param row Row to check, or -1 if the selected category is not listed in the level.
+     * @return Row unchecked, to be bound again, or -1.
+     */
+    int check(int row) {
+        if (checked == row)
+            return -1;
+
+        int unchecked = -1;
+        if (checked >= 0 && checked < rows.size()) {
+            rows.get(checked).setChecked(false);
+            unchecked = checked;
+        }
+
+        checked = -1;
+        if (row >= 0 && row < rows.size()) {
+            rows.get(row).setChecked(true);
+            checked = row;
+        }
+        return unchecked;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.cpmproto.categorystepfragment.fragment;
+
+import android.view.Choreographer;
+
+import com.github.cpmproto.categorystepfragment.action.ActionElement;
+import com.github.cpmproto.categorystepfragment.base.StepExecutors;
+import com.github.cpmproto.categorystepfragment.util.LongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects element updates posted from any thread and hands them to the main thread once per
+ * frame. Updates to the same id posted within a frame are collapsed, the last one wins.
+ */
+final class ElementUpdates implements Choreographer.FrameCallback, Runnable {
+
+    interface Target {
+        /**
+         * Called on the main thread with the latest update of every id posted since the last
+         * frame, in the order the ids were first posted. The list is only valid during the call.
+         */
+        void onElementUpdates(List<ActionElement> updates);
+    }
+
+    private final Target mTarget;
+    private final Object mLock = new Object();
+    // Latest update of every id posted since the last frame, and their position in it.
+    private final LongIntHashMap mPositions = new LongIntHashMap();
+    private List<ActionElement> mPending = new ArrayList<>();
+    // Updates handed to the target, reused for the next frame once applied.
+    private List<ActionElement> mApplying = new ArrayList<>();
+    private boolean mScheduled;
+
+    ElementUpdates(Target target) {
+        mTarget = target;
+    }
+
+    void post(ActionElement update) {
+        boolean schedule;
+        synchronized (mLock) {
+            int position = mPositions.get(update.getId(), -1);
+            if (position >= 0) {
+                mPending.set(position, update);
+            } else {
+                mPositions.put(update.getId(), mPending.size());
+                mPending.add(update);
+            }
+            schedule = !mScheduled;
+            mScheduled = true;
+        }
+        if (schedule)
+            StepExecutors.main().execute(this);
+    }
+
+    /**
+     * Drops the updates not applied yet and the frame callback waiting for them. Called on the
+     * main thread.
+     */
+    void cancel() {
+        synchronized (mLock) {
+            mPositions.clear();
+            mPending.clear();
+            mScheduled = false;
+        }
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    /**
+     * Waits for the next frame on the main thread, the Choreographer is per thread.
+     */
+    @Override
+    public void run() {
+        synchronized (mLock) {
+            if (!mScheduled)
+                return;
+        }
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        List<ActionElement> updates;
+        synchronized (mLock) {
+            updates = mPending;
+            mPending = mApplying;
+            mApplying = updates;
+            mPositions.clear();
+            mScheduled = false;
+        }
+        if (updates.isEmpty())
+            return;
+
+        try {
+            mTarget.onElementUpdates(updates);
+        } finally {
+            updates.clear();
+        }
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.cpmproto.categorystepfragment.icon;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.text.TextUtils;
+import android.util.TypedValue;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.DecodeFormat;
+import com.bumptech.glide.request.animation.GlideAnimation;
+import com.bumptech.glide.request.target.SimpleTarget;
+import com.github.cpmproto.categorystepfragment.R;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process wide cache of action icons keyed by image url and {@link DecodeOptions}. Each url is
+ * decoded once per options: requests for a url already being loaded join the in-flight request,
+ * and every caller gets its own drawable backed by the same decoded bitmap. Must be used from
+ * the main thread.
+ * <p/>
+ * Icons are decoded straight to the size of the action icon view given by the options of the
+ * request, so fragments with different icon sizes or formats share the cache without affecting
+ * each other. A delivered icon holds a reference on its bitmap until it is given back with
+ * {@link #release(String, DecodeOptions)}. Unreferenced icons stay cached up to a memory budget;
+ * once evicted their bitmaps return to Glide's bitmap pool and are reused by later decodes.
+ */
+public final class IconCache {
+    private static final int MEMORY_FRACTION = 16;
+
+    /**
+     * Size and format an icon is decoded to. Options are compared by value, keep one instance
+     * per fragment so lookups do not allocate.
+     */
+    public static final class DecodeOptions {
+        private final int mWidth;
+        private final int mHeight;
+        private final boolean mPreferRgb565;
+
+        /**
+         * @param width        Pixel width icons are decoded and cropped to.
+         * @param height       Pixel height icons are decoded and cropped to.
+         * @param preferRgb565 Decodes icons as RGB_565, which halves their memory. Only suitable
+         *                     for opaque icons.
+         */
+        public DecodeOptions(int width, int height, boolean preferRgb565) {
+            if (width <= 0 || height <= 0)
+                throw new IllegalArgumentException("Invalid icon size " + width + "x" + height);
+
+            mWidth = width;
+            mHeight = height;
+            mPreferRgb565 = preferRgb565;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public boolean isPreferRgb565() {
+            return mPreferRgb565;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+
+            if (!(o instanceof DecodeOptions))
+                return false;
+
+            DecodeOptions other = (DecodeOptions) o;
+            return mWidth == other.mWidth && mHeight == other.mHeight
+                    && mPreferRgb565 == other.mPreferRgb565;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * mWidth + mHeight) * 2 + (mPreferRgb565 ? 1 : 0);
+        }
+    }
+
+    /**
+     * Receives the icon of a url once it is decoded.
+     */
+    public interface Callback {
+        void onIconReady(String url, Drawable icon);
+    }
+
+    private static IconCache sInstance;
+
+    private final Context mContext;
+    private final int mIdleBudget;
+    private final DecodeOptions mDefaultOptions;
+    private final Map<DecodeOptions, Map<String, Entry>> mEntries = new HashMap<>();
+    // Unreferenced icons, least recently released first. Entries compare by identity.
+    private final LinkedHashMap<Entry, Entry> mIdle = new LinkedHashMap<>();
+    private final Map<DecodeOptions, Map<String, Pending>> mPending = new HashMap<>();
+    private int mIdleBytes;
+    private int mHitCount;
+    private int mMissCount;
+    private int mCoalescedCount;
+
+    public static synchronized IconCache getInstance(Context context) {
+        if (sInstance == null)
+            sInstance = new IconCache(context.getApplicationContext());
+
+        return sInstance;
+    }
+
+    private IconCache(Context context) {
+        mContext = context;
+        mIdleBudget = (int) (Runtime.getRuntime().maxMemory() / MEMORY_FRACTION);
+        int size = context.getResources().getDimensionPixelSize(R.dimen.category_step_icon_size);
+        mDefaultOptions = new DecodeOptions(size, size, false);
+    }
+
+    /**
+     * @return Options decoding icons to the default icon size, as ARGB_8888.
+     */
+    public DecodeOptions getDefaultOptions() {
+        return mDefaultOptions;
+    }
+
+    /**
+     * Resolves the pixel size of the GuidedAction icon view from the guidedActionItemIconStyle
+     * of a theme. Falls back to the default icon size when the style has no fixed size.
+     *
+     * @param themedContext Context carrying the guided step theme.
+     * @return Width and height of the icon view, in pixels.
+     */
+    public static int[] resolveIconSize(Context themedContext) {
+        int fallback = themedContext.getResources().getDimensionPixelSize(R.dimen.category_step_icon_size);
+        int[] size = {fallback, fallback};
+
+        TypedValue typedValue = new TypedValue();
+        if (themedContext.getTheme().resolveAttribute(R.attr.guidedActionItemIconStyle, typedValue, true)) {
+            TypedArray array = themedContext.obtainStyledAttributes(typedValue.resourceId,
+                    new int[]{android.R.attr.layout_width, android.R.attr.layout_height});
+            int width = array.getLayoutDimension(0, fallback);
+            int height = array.getLayoutDimension(1, fallback);
+            array.recycle();
+
+            // match_parent and wrap_content resolve to negative values.
+            if (width > 0)
+                size[0] = width;
+            if (height > 0)
+                size[1] = height;
+        }
+        return size;
+    }
+
+    /**
+     * Same as {@link #load(String, DecodeOptions, Callback)} with {@link #getDefaultOptions()}.
+     */
+    public Request load(String url, Callback callback) {
+        return load(url, mDefaultOptions, callback);
+    }
+
+    /**
+     * Delivers the icon of a url to the callback, immediately if it is cached, otherwise once
+     * the only request for that url and options completes. Nothing is delivered if the load
+     * fails. Each delivered icon must be given back with {@link #release(String, DecodeOptions)}
+     * once no view shows it.
+     *
+     * @param url      Image url of the icon.
+     * @param options  Size and format to decode the icon to.
+     * @param callback Callback receiving the icon.
+     * @return Handle to cancel the delivery, or null if the icon was delivered already or the
+     * url is empty.
+     */
+    public Request load(final String url, final DecodeOptions options, Callback callback) {
+        if (TextUtils.isEmpty(url))
+            return null;
+
+        Entry entry = entryOf(url, options);
+        if (entry != null) {
+            mHitCount++;
+            callback.onIconReady(url, acquire(entry));
+            return null;
+        }
+
+        Map<String, Pending> pendingByUrl = pendingOf(options);
+        Pending pending = pendingByUrl.get(url);
+        if (pending != null) {
+            mCoalescedCount++;
+            pending.callbacks.add(callback);
+            return new Request(url, options, callback);
+        }
+
+        mMissCount++;
+        pending = new Pending(new SimpleTarget<Bitmap>(options.mWidth, options.mHeight) {
+            @Override
+            public void onResourceReady(Bitmap resource, GlideAnimation<? super Bitmap> glideAnimation) {
+                onLoaded(url, options, this, resource);
+            }
+
+            @Override
+            public void onLoadFailed(Exception e, Drawable errorDrawable) {
+                pendingOf(options).remove(url);
+            }
+        });
+        pending.callbacks.add(callback);
+        pendingByUrl.put(url, pending);
+
+        Glide.with(mContext)
+                .load(url)
+                .asBitmap()
+                .format(options.mPreferRgb565 ? DecodeFormat.PREFER_RGB_565 : DecodeFormat.PREFER_ARGB_8888)
+                .override(options.mWidth, options.mHeight)
+                .centerCrop()
+                .into(pending.target);
+
+        return new Request(url, options, callback);
+    }
+
+    /**
+     * Same as {@link #release(String, DecodeOptions)} with {@link #getDefaultOptions()}.
+     */
+    public void release(String url) {
+        release(url, mDefaultOptions);
+    }
+
+    /**
+     * Gives back the reference taken by an icon delivered for the url and options.
+     */
+    public void release(String url, DecodeOptions options) {
+        Entry entry = url != null ? entryOf(url, options) : null;
+        if (entry == null || entry.refs == 0)
+            return;
+
+        if (--entry.refs == 0) {
+            mIdle.put(entry, entry);
+            mIdleBytes += entry.bytes;
+            trimIdle(mIdleBudget);
+        }
+    }
+
+    /**
+     * @return Number of loads served from the cache.
+     */
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return Number of loads that started a decode.
+     */
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return Number of loads that joined a decode already in flight for the same url.
+     */
+    public int getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    public void resetCounts() {
+        mHitCount = 0;
+        mMissCount = 0;
+        mCoalescedCount = 0;
+    }
+
+    private void onLoaded(String url, DecodeOptions options, SimpleTarget<Bitmap> target, Bitmap resource) {
+        Pending pending = pendingOf(options).remove(url);
+        if (resource == null || pending == null) {
+            Glide.clear(target);
+            return;
+        }
+
+        Entry entry = new Entry(url, options, new BitmapDrawable(mContext.getResources(), resource), target);
+        entriesOf(options).put(url, entry);
+
+        List<Callback> waiting = pending.callbacks;
+        for (int i = 0, size = waiting.size(); i < size; i++)
+            waiting.get(i).onIconReady(url, acquire(entry));
+
+        if (entry.refs == 0) {
+            mIdle.put(entry, entry);
+            mIdleBytes += entry.bytes;
+            trimIdle(mIdleBudget);
+        }
+    }
+
+    private Entry entryOf(String url, DecodeOptions options) {
+        Map<String, Entry> entries = mEntries.get(options);
+        return entries != null ? entries.get(url) : null;
+    }
+
+    private Map<String, Entry> entriesOf(DecodeOptions options) {
+        Map<String, Entry> entries = mEntries.get(options);
+        if (entries == null) {
+            entries = new HashMap<>();
+            mEntries.put(options, entries);
+        }
+        return entries;
+    }
+
+    private Map<String, Pending> pendingOf(DecodeOptions options) {
+        Map<String, Pending> pending = mPending.get(options);
+        if (pending == null) {
+            pending = new HashMap<>();
+            mPending.put(options, pending);
+        }
+        return pending;
+    }
+
+    private Drawable acquire(Entry entry) {
+        if (entry.refs++ == 0 && mIdle.remove(entry) != null)
+            mIdleBytes -= entry.bytes;
+
+        Drawable.ConstantState state = entry.icon.getConstantState();
+        return state != null ? state.newDrawable(mContext.getResources()) : entry.icon;
+    }
+
+    /**
+     * Evicts the least recently used unreferenced icons until they fit the budget. Clearing the
+     * target releases the bitmap to Glide, which recycles it into its bitmap pool.
+     */
+    private void trimIdle(int budget) {
+        Iterator<Entry> iterator = mIdle.keySet().iterator();
+        while (mIdleBytes > budget && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            mEntries.get(eldest.options).remove(eldest.url);
+            mIdleBytes -= eldest.bytes;
+            Glide.clear(eldest.target);
+        }
+    }
+
+    private void cancel(String url, DecodeOptions options, Callback callback) {
+        Map<String, Pending> pendingByUrl = pendingOf(options);
+        Pending pending = pendingByUrl.get(url);
+        if (pending == null || !pending.callbacks.remove(callback))
+            return;
+
+        // Nobody else waits for this url, stop decoding it.
+        if (pending.callbacks.isEmpty()) {
+            pendingByUrl.remove(url);
+            Glide.clear(pending.target);
+        }
+    }
+
+    /**
+     * Pending delivery of an icon returned by {@link #load(String, DecodeOptions, Callback)}.
+     */
+    public final class Request {
+        private final String mUrl;
+        private final DecodeOptions mOptions;
+        private final Callback mCallback;
+
+        private Request(String url, DecodeOptions options, Callback callback) {
+            mUrl = url;
+            mOptions = options;
+            mCallback = callback;
+        }
+
+        /**
+         * Stops the delivery to this request's callback. The decode itself is cancelled when no
+         * other request waits for the same url.
+         */
+        public void cancel() {
+            IconCache.this.cancel(mUrl, mOptions, mCallback);
+        }
+    }
+
+    private static final class Entry {
+        final String url;
+        final DecodeOptions options;
+        final BitmapDrawable icon;
+        final SimpleTarget<Bitmap> target;
+        final int bytes;
+        int refs;
+
+        Entry(String url, DecodeOptions options, BitmapDrawable icon, SimpleTarget<Bitmap> target) {
+            this.url = url;
+            this.options = options;
+            this.icon = icon;
+            this.target = target;
+            this.bytes = icon.getBitmap().getByteCount();
+        }
+    }
+
+    private static final class Pending {
+        final SimpleTarget<Bitmap> target;
+        final List<Callback> callbacks = new ArrayList<>(1);
+
+        Pending(SimpleTarget<Bitmap> target) {
+            this.target = target;
+        }
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.cpmproto.categorystepfragment.icon;
+
+import android.graphics.drawable.Drawable;
+import android.support.v17.leanback.widget.GuidedAction;
+import android.support.v17.leanback.widget.GuidedActionAdapter;
+import android.support.v17.leanback.widget.VerticalGridView;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import com.github.cpmproto.categorystepfragment.base.StepMetrics;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Loads the icons of the actions shown by a grid: the visible rows plus a look-ahead window in
+ * the scroll direction. Requests for rows that scrolled far away, or that were removed from the
+ * adapter, as when the user leaves a category, are cancelled so the decode queue only holds
+ * icons about to be shown. Icons of rows that left the window are released back to the
+ * {@link IconCache} so their bitmaps can be reused.
+ */
+public class ViewportIconLoader extends RecyclerView.OnScrollListener
+        implements ViewTreeObserver.OnGlobalLayoutListener {
+    private static final int DEFAULT_LOOK_AHEAD = 8;
+    private static final int REMOVED = -1;
+
+    /**
+     * Maps the actions of the grid to their icons.
+     */
+    public interface IconSource {
+        /**
+         * @return Image url of the action, or null if it has no icon.
+         */
+        String getIconUrl(GuidedAction action);
+
+        /**
+         * Called on the main thread when the icon of an action was loaded.
+         */
+        void onIconLoaded(GuidedAction action, Drawable icon);
+
+        /**
+         * Called on the main thread when the icon of an action is released and must no longer
+         * be shown.
+         */
+        void onIconReleased(GuidedAction action);
+    }
+
+    private final IconCache mIconCache;
+    private final IconCache.DecodeOptions mDecodeOptions;
+    private final IconSource mIconSource;
+    private final Map<GuidedAction, PendingIcon> mRequests = new IdentityHashMap<>();
+    private final Map<GuidedAction, LoadedIcon> mLoaded = new IdentityHashMap<>();
+    private VerticalGridView mGridView;
+    private int mLookAhead = DEFAULT_LOOK_AHEAD;
+    private int mDirection = 1;
+    private int mPass;
+    private RecyclerView.Adapter<?> mObserved;
+    // Set when the adapter was reset, which leaves the positions of the icons unknown.
+    private boolean mPositionsLost;
+    private StepMetrics mMetrics;
+    private GuidedAction mRequesting;
+    private boolean mPaused;
+
+    // Keeps the positions of the requested and loaded icons in step with the adapter.
+    private final RecyclerView.AdapterDataObserver mPositionTracker = new RecyclerView.AdapterDataObserver() {
+        @Override
+        public void onChanged() {
+            mPositionsLost = true;
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            for (PendingIcon pending : mRequests.values())
+                pending.position = inserted(pending.position, positionStart, itemCount);
+            for (LoadedIcon icon : mLoaded.values())
+                icon.position = inserted(icon.position, positionStart, itemCount);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            for (PendingIcon pending : mRequests.values())
+                pending.position = removed(pending.position, positionStart, itemCount);
+            for (LoadedIcon icon : mLoaded.values())
+                icon.position = removed(icon.position, positionStart, itemCount);
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            for (PendingIcon pending : mRequests.values())
+                pending.position = moved(pending.position, fromPosition, toPosition, itemCount);
+            for (LoadedIcon icon : mLoaded.values())
+                icon.position = moved(icon.position, fromPosition, toPosition, itemCount);
+        }
+    };
+
+    public ViewportIconLoader(IconCache iconCache, IconSource iconSource) {
+        this(iconCache, iconCache.getDefaultOptions(), iconSource);
+    }
+
+    /**
+     * @param decodeOptions Size and format the icons of this grid are decoded to.
+     */
+    public ViewportIconLoader(IconCache iconCache, IconCache.DecodeOptions decodeOptions,
+                              IconSource iconSource) {
+        mIconCache = iconCache;
+        mDecodeOptions = decodeOptions;
+        mIconSource = iconSource;
+    }
+
+    /**
+     * Starts loading icons for the rows of the grid as it scrolls and lays out.
+     */
+    public void attach(VerticalGridView gridView) {
+        detach();
+        mGridView = gridView;
+        observe(gridView.getAdapter());
+        mGridView.addOnScrollListener(this);
+        mGridView.getViewTreeObserver().addOnGlobalLayoutListener(this);
+    }
+
+    /**
+     * Stops following the grid, cancels every pending request and releases the loaded icons.
+     */
+    public void detach() {
+        observe(null);
+        if (mGridView != null) {
+            mGridView.removeOnScrollListener(this);
+            mGridView.getViewTreeObserver().removeOnGlobalLayoutListener(this);
+            mGridView = null;
+        }
+        cancelAll();
+        releaseAll();
+    }
+
+    /**
+     * @param rows Number of rows past the visible ones, in the scroll direction, whose icons are
+     *             loaded ahead of time.
+     */
+    public void setLookAhead(int rows) {
+        mLookAhead = Math.max(0, rows);
+    }
+
+    public int getLookAhead() {
+        return mLookAhead;
+    }
+
+    /**
+     * Records the load latency of every delivered icon, and whether the cache served it.
+     */
+    public void setMetrics(StepMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Stops requesting icons while the grid is fast scrolled, and cancels the pending requests:
+     * their rows are gone by the time they would be delivered. Resuming requests the icons of
+     * the rows shown by then.
+     */
+    public void setPaused(boolean paused) {
+        if (mPaused == paused)
+            return;
+
+        mPaused = paused;
+        if (paused)
+            cancelAll();
+        else
+            update();
+    }
+
+    /**
+     * Drops the icon of an action whose image changed. It is requested again on the next update
+     * if its row is still in the window.
+     */
+    public void invalidate(GuidedAction action) {
+        PendingIcon pending = mRequests.remove(action);
+        if (pending != null)
+            pending.request.cancel();
+
+        LoadedIcon loaded = mLoaded.remove(action);
+        if (loaded != null) {
+            mIconSource.onIconReleased(action);
+            mIconCache.release(loaded.url, mDecodeOptions);
+        }
+    }
+
+    public void cancelAll() {
+        for (PendingIcon pending : mRequests.values())
+            pending.request.cancel();
+
+        mRequests.clear();
+    }
+
+    public void releaseAll() {
+        for (Map.Entry<GuidedAction, LoadedIcon> entry : mLoaded.entrySet()) {
+            mIconSource.onIconReleased(entry.getKey());
+            mIconCache.release(entry.getValue().url, mDecodeOptions);
+        }
+        mLoaded.clear();
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        if (dy != 0)
+            mDirection = dy > 0 ? 1 : -1;
+
+        update();
+    }
+
+    @Override
+    public void onGlobalLayout() {
+        update();
+    }
+
+    /**
+     * Requests the icons of the current window and cancels the ones that left it.
+     */
+    public void update() {
+        if (mPaused || mGridView == null || !(mGridView.getAdapter() instanceof GuidedActionAdapter))
+            return;
+
+        GuidedActionAdapter adapter = (GuidedActionAdapter) mGridView.getAdapter();
+        observe(adapter);
+        int count = adapter.getItemCount();
+
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        for (int i = 0, children = mGridView.getChildCount(); i < children; i++) {
+            View child = mGridView.getChildAt(i);
+            int position = mGridView.getChildAdapterPosition(child);
+            if (position == RecyclerView.NO_POSITION)
+                continue;
+
+            first = Math.min(first, position);
+            last = Math.max(last, position);
+        }
+
+        if (last < 0)
+            return;
+
+        int from = Math.max(0, mDirection < 0 ? first - mLookAhead : first);
+        int to = Math.min(count - 1, mDirection > 0 ? last + mLookAhead : last);
+
+        int pass = ++mPass;
+        for (int position = from; position <= to; position++)
+            request(adapter.getItem(position), position, pass);
+
+        // Keep requests and icons that are still close enough to come back into view soon.
+        int keepFrom = first - 2 * mLookAhead;
+        int keepTo = last + 2 * mLookAhead;
+        Iterator<PendingIcon> requests = mRequests.values().iterator();
+        while (requests.hasNext()) {
+            PendingIcon pending = requests.next();
+            if (pending.pass == pass)
+                continue;
+
+            if (mPositionsLost || pending.position == REMOVED
+                    || pending.position < keepFrom || pending.position > keepTo) {
+                pending.request.cancel();
+                requests.remove();
+            }
+        }
+
+        Iterator<Map.Entry<GuidedAction, LoadedIcon>> loaded = mLoaded.entrySet().iterator();
+        while (loaded.hasNext()) {
+            Map.Entry<GuidedAction, LoadedIcon> entry = loaded.next();
+            LoadedIcon icon = entry.getValue();
+            if (icon.pass == pass)
+                continue;
+
+            if (mPositionsLost || icon.position == REMOVED
+                    || icon.position < keepFrom || icon.position > keepTo) {
+                loaded.remove();
+                mIconSource.onIconReleased(entry.getKey());
+                mIconCache.release(icon.url, mDecodeOptions);
+            }
+        }
+        mPositionsLost = false;
+    }
+
+    /**
+     * Follows the changes of the adapter, so the icons keep the position of their row once a
+     * category switch or an append was applied. Rows removed are marked to be dropped on the
+     * next update.
+     */
+    private void observe(RecyclerView.Adapter<?> adapter) {
+        if (adapter == mObserved)
+            return;
+
+        if (mObserved != null)
+            mObserved.unregisterAdapterDataObserver(mPositionTracker);
+        mObserved = adapter;
+        if (mObserved != null)
+            mObserved.registerAdapterDataObserver(mPositionTracker);
+    }
+
+    private static int inserted(int position, int start, int count) {
+        return position >= start ? position + count : position;
+    }
+
+    private static int removed(int position, int start, int count) {
+        if (position < start)
+            return position;
+
+        return position < start + count ? REMOVED : position - count;
+    }
+
+    private static int moved(int position, int from, int to, int count) {
+        if (position == REMOVED)
+            return position;
+
+        if (position >= from && position < from + count)
+            return to + position - from;
+
+        position = removed(position, from, count);
+        return inserted(position, to, count);
+    }
+
+    private void request(final GuidedAction action, final int position, int pass) {
+        PendingIcon pending = mRequests.get(action);
+        if (pending != null) {
+            pending.position = position;
+            pending.pass = pass;
+            return;
+        }
+
+        LoadedIcon loaded = mLoaded.get(action);
+        if (loaded != null) {
+            loaded.position = position;
+            loaded.pass = pass;
+            return;
+        }
+
+        if (action.getIcon() != null)
+            return;
+
+        String url = mIconSource.getIconUrl(action);
+        if (url == null)
+            return;
+
+        final long start = System.nanoTime();
+        mRequesting = action;
+        IconCache.Request request = mIconCache.load(url, mDecodeOptions, new IconCache.Callback() {
+            @Override
+            public void onIconReady(String url, Drawable icon) {
+                if (mMetrics != null)
+                    mMetrics.recordIconLoad(System.nanoTime() - start, mRequesting == action);
+
+                mRequests.remove(action);
+                mLoaded.put(action, new LoadedIcon(url, position, mPass));
+                mIconSource.onIconLoaded(action, icon);
+            }
+        });
+        mRequesting = null;
+
+        // Glide may deliver from its memory cache before load() returns.
+        if (request != null && !mLoaded.containsKey(action))
+            mRequests.put(action, new PendingIcon(request, position, pass));
+    }
+
+    private static final class LoadedIcon {
+        final String url;
+        int position;
+        int pass;
+
+        LoadedIcon(String url, int position, int pass) {
+            this.url = url;
+            this.position = position;
+            this.pass = pass;
+        }
+    }
+
+    private static final class PendingIcon {
+        final IconCache.Request request;
+        int position;
+        int pass;
+
+        PendingIcon(IconCache.Request request, int position, int pass) {
+            this.request = request;
+            this.position = position;
+            this.pass = pass;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.github.cpmproto.categorystepfragment.search;
+
+import com.github.cpmproto.categorystepfragment.action.ActionElement;
+import com.github.cpmproto.categorystepfragment.action.CatalogView;
+import com.github.cpmproto.categorystepfragment.action.CatalogViews;
+import com.github.cpmproto.categorystepfragment.util.LongIntHashMap;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Type-ahead index over the description and sub description of catalog elements. Every word
+ * prefix (edge n-gram) up to {@link #MAX_GRAM_LENGTH} characters maps to the sorted list of
+ * elements having it, so a query term is a single lookup. Text is compared case and accent
+ * insensitively, and every query term must prefix a word of the element.
+ * <p/>
+ * The elements of a {@link CatalogView} are indexed from its columns, and only the elements
+ * returned by a search are created.
+ * <p/>
+ * A query that extends the previous one, as it happens while typing, is answered by narrowing
+ * the previous result. The index is not thread-safe: build it on a background thread, then
+ * hand it over to the thread that queries and updates it.
+ */
+public final class CatalogSearchIndex {
+    /**
+     * Longest indexed word prefix. Longer terms are looked up by their first characters and
+     * checked against the element text.
+     */
+    public static final int MAX_GRAM_LENGTH = 8;
+
+    private static final int NOT_FOUND = -1;
+    private static final int[] EMPTY = new int[0];
+
+    private final Map<String, Postings> mPostings = new HashMap<>();
+    private final LongIntHashMap mSlots = new LongIntHashMap();
+    // Null for the slots read from mView, and for removed ones.
+    private final List<ActionElement> mElements = new ArrayList<>();
+    private final List<String> mTexts = new ArrayList<>();
+    private CatalogView mView;
+    private int mViewStart;
+    private int mViewEnd;
+    private String mLastQuery;
+    private int[] mLastResult = EMPTY;
+
+    /**
+     * Adds an element, or replaces the indexed element with the same id.
+     */
+    public void put(ActionElement element) {
+        int slot = mSlots.get(element.getId(), NOT_FOUND);
+        if (slot == NOT_FOUND) {
+            slot = mElements.size();
+            mSlots.put(element.getId(), slot);
+            mElements.add(element);
+            mTexts.add(null);
+        } else {
+            removePostings(slot);
+            mElements.set(slot, element);
+        }
+
+        String text = normalize(textOf(element.getDescription(), element.getSubDescription()));
+        mTexts.set(slot, text);
+        for (String gram : gramsOf(text))
+            postingsOf(gram).add(slot);
+
+        mLastQuery = null;
+    }
+
+    public void putAll(List<ActionElement> elements) {
+        for (int i = 0, size = elements.size(); i < size; i++)
+            put(elements.get(i));
+    }
+
+    /**
+     * Adds every element of a catalog view, reading its columns instead of creating the
+     * elements. Only one view can be indexed; elements put later replace its elements by id.
+     */
+    public void putAll(CatalogView view) {
+        if (mView != null)
+            throw new IllegalStateException("A catalog view is already indexed");
+
+        mView = view;
+        mViewStart = mElements.size();
+        for (int element = 0, count = view.getTotalElementCount(); element < count; element++) {
+            int id = view.getId(element);
+            int slot = mElements.size();
+            mElements.add(null);
+            mTexts.add(null);
+            if (mSlots.get(id, NOT_FOUND) != NOT_FOUND) {
+                // The id is indexed already: its slot takes the element, the one added keeps
+                // the slots of the view in step with its elements and stays unused.
+                put(CatalogViews.getElement(view, element));
+                continue;
+            }
+
+            mSlots.put(id, slot);
+            String text = normalize(textOf(view.getDescription(element), view.getSubDescription(element)));
+            mTexts.set(slot, text);
+            for (String gram : gramsOf(text))
+                postingsOf(gram).add(slot);
+        }
+        mViewEnd = mElements.size();
+        mLastQuery = null;
+    }
+
+    /**
+     * Removes the element with the given id, if indexed.
+     */
+    public void remove(long id) {
+        int slot = mSlots.remove(id, NOT_FOUND);
+        if (slot == NOT_FOUND)
+            return;
+
+        removePostings(slot);
+        mElements.set(slot, null);
+        mTexts.set(slot, null);
+        mLastQuery = null;
+    }
+
+    /**
+     * @return Number of indexed elements.
+     */
+    public int size() {
+        return mSlots.size();
+    }
+
+    /**
+     * Finds the elements whose words are prefixed by every term of the query, in the order they
+     * were first indexed.
+     *
+     * @param query The query as typed.
+     * @param limit Maximum number of elements returned.
+     * @return The matching elements, or an empty list if the query has no terms.
+     */
+    public List<ActionElement> search(String query, int limit) {
+        String normalized = normalize(query);
+        if (normalized.isEmpty())
+            return Collections.emptyList();
+
+        String[] terms = normalized.split(" ");
+        int[] result;
+        if (extendsLastQuery(normalized)) {
+            // Typing only narrows the result: check the last, possibly longer, term alone.
+            result = filter(mLastResult, terms[terms.length - 1]);
+        } else {
+            result = null;
+            for (String term : terms) {
+                result = result == null ? lookup(term) : filter(result, term);
+                if (result.length == 0)
+                    break;
+            }
+        }
+
+        mLastQuery = normalized;
+        mLastResult = result;
+
+        int count = Math.min(limit, result.length);
+        List<ActionElement> elements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            elements.add(elementAt(result[i]));
+
+        return elements;
+    }
+
+    private ActionElement elementAt(int slot) {
+        ActionElement element = mElements.get(slot);
+        if (element == null && slot >= mViewStart && slot < mViewEnd)
+            element = CatalogViews.getElement(mView, slot - mViewStart);
+
+        return element;
+    }
+
+    /**
+     * @return True if the query only extends the last term of the previous query, or adds a
+     * new term after it.
+     */
+    private boolean extendsLastQuery(String normalized) {
+        if (mLastQuery == null || !normalized.startsWith(mLastQuery))
+            return false;
+
+        int next = normalized.indexOf(' ', mLastQuery.length());
+        return next < 0 || (next == mLastQuery.length() && normalized.indexOf(' ', next + 1) < 0);
+    }
+
+    /**
+     * @return The fields joined by a space, leaving out null and empty ones.
+     */
+    private static String textOf(String description, String subDescription) {
+        if (subDescription == null || subDescription.isEmpty())
+            return description;
+
+        if (description == null || description.isEmpty())
+            return subDescription;
+
+        return description + ' ' + subDescription;
+    }
+
+    /**
+     * Lower cases the text, strips accents and turns every run of other characters than
+     * letters and digits into a single space.
+     */
+    static String normalize(String text) {
+        if (text == null || text.isEmpty())
+            return "";
+
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder builder = new StringBuilder(decomposed.length());
+        boolean separator = true;
+        for (int i = 0, length = decomposed.length(); i < length; i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK)
+                continue;
+
+            if (Character.isLetterOrDigit(c)) {
+                builder.append(Character.toLowerCase(c));
+                separator = false;
+            } else if (!separator) {
+                builder.append(' ');
+                separator = true;
+            }
+        }
+
+        int length = builder.length();
+        if (length > 0 && builder.charAt(length - 1) == ' ')
+            builder.setLength(length - 1);
+
+        return builder.toString();
+    }
+
+    private static Set<String> gramsOf(String text) {
+        Set<String> grams = new HashSet<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf(' ', start);
+            if (end < 0)
+                end = text.length();
+
+            for (int length = 1, max = Math.min(MAX_GRAM_LENGTH, end - start); length <= max; length++)
+                grams.add(text.substring(start, start + length));
+
+            start = end + 1;
+        }
+        return grams;
+    }
+
+    private int[] lookup(String term) {
+        String gram = term.length() > MAX_GRAM_LENGTH ? term.substring(0, MAX_GRAM_LENGTH) : term;
+        Postings postings = mPostings.get(gram);
+        if (postings == null)
+            return EMPTY;
+
+        int[] slots = Arrays.copyOf(postings.slots, postings.size);
+        return term.length() > MAX_GRAM_LENGTH ? verify(slots, term) : slots;
+    }
+
+    /**
+     * Keeps the slots of the candidates that also match the term.
+     */
+    private int[] filter(int[] candidates, String term) {
+        if (term.length() > MAX_GRAM_LENGTH)
+            return verify(candidates, term);
+
+        Postings postings = mPostings.get(term);
+        if (postings == null)
+            return EMPTY;
+
+        int[] result = new int[Math.min(candidates.length, postings.size)];
+        int count = 0;
+        for (int i = 0, j = 0; i < candidates.length && j < postings.size; ) {
+            int candidate = candidates[i];
+            int slot = postings.slots[j];
+            if (candidate == slot) {
+                result[count++] = candidate;
+                i++;
+                j++;
+            } else if (candidate < slot) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    private int[] verify(int[] candidates, String term) {
+        String wordStart = ' ' + term;
+        int[] result = new int[candidates.length];
+        int count = 0;
+        for (int candidate : candidates) {
+            String text = mTexts.get(candidate);
+            if (text != null && (text.startsWith(term) || text.contains(wordStart)))
+                result[count++] = candidate;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private Postings postingsOf(String gram) {
+        Postings postings = mPostings.get(gram);
+        if (postings == null) {
+            postings = new Postings();
+            mPostings.put(gram, postings);
+        }
+        return postings;
+    }
+
+    private void removePostings(int slot) {
+        String text = mTexts.get(slot);
+        if (text == null)
+            return;
+
+        for (String gram : gramsOf(text)) {
+            Postings postings = mPostings.get(gram);
+            if (postings != null && postings.remove(slot) && postings.size == 0)
+                mPostings.remove(gram);
+        }
+    }
+
+    /**
+     * Sorted set of element slots.
+     */
+    private static final class Postings {
+        int[] slots = new int[2];
+        int size;
+
+        void add(int slot) {
+            int index = Arrays.binarySearch(slots, 0, size, slot);
+            if (index >= 0)
+                return;
+
+            index = -index - 1;
+            if (size == slots.length)
+                slots = Arrays.copyOf(slots, size * 2);
+
+            System.arraycopy(slots, index, slots, index + 1, size - index);
+            slots[index] = slot;
+            size++;
+        }
+
+        boolean remove(int slot) {
+            int index = Arrays.binarySearch(slots, 0, size, slot);
+            if (index < 0)
+                return false;
+
+            System.arraycopy(slots, index + 1, slots, index, size - index - 1);
+            size--;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.github.cpmproto.categorystepfragment.util;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Read-only list showing several lists one after the other, without copying them. Positions
+ * are mapped to the source lists through prefix sums of their sizes, a binary search per
+ * lookup. The source lists must not change size while the view is used.
+ */
+public final class ConcatList<E> extends AbstractList<E> implements RandomAccess {
+    private final List<? extends E>[] mSources;
+    // mStarts[i] is the position of the first element of source i, mStarts[length] the size.
+    private final int[] mStarts;
+
+    @SuppressWarnings("unchecked")
+    public ConcatList(List<? extends List<? extends E>> sources) {
+        mSources = (List<? extends E>[]) sources.toArray(new List<?>[sources.size()]);
+        mStarts = new int[mSources.length + 1];
+        for (int i = 0; i < mSources.length; i++)
+            mStarts[i + 1] = mStarts[i] + mSources[i].size();
+    }
+
+    @Override
+    public E get(int location) {
+        if (location < 0 || location >= size())
+            throw new IndexOutOfBoundsException("Index " + location + ", size " + size());
+
+        int source = sourceOf(location);
+        return mSources[source].get(location - mStarts[source]);
+    }
+
+    @Override
+    public int size() {
+        return mStarts[mSources.length];
+    }
+
+    /**
+     * @return Index of the last source starting at or before the position, which skips the
+     * empty sources starting there as well.
+     */
+    private int sourceOf(int location) {
+        int low = 0;
+        int high = mSources.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (mStarts[middle] <= location)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.github.cpmproto.categorystepfragment.util;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of non-negative long values in power of two buckets. Recording does not allocate,
+ * and percentiles are reported as the upper bound of their bucket, so within a factor of two.
+ * Not thread safe.
+ */
+public final class Histogram {
+    private static final int BUCKET_COUNT = 64;
+
+    private final long[] mBuckets = new long[BUCKET_COUNT];
+    private long mCount;
+    private long mSum;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax;
+
+    /**
+     * Adds a value. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+
+        // Bucket b holds the values in [2^(b-1), 2^b - 1], bucket 0 holds 0.
+        mBuckets[BUCKET_COUNT - Long.numberOfLeadingZeros(value)]++;
+        mCount++;
+        mSum += value;
+        mMin = Math.min(mMin, value);
+        mMax = Math.max(mMax, value);
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return Smallest recorded value, or 0 if nothing was recorded.
+     */
+    public long getMin() {
+        return mCount == 0 ? 0 : mMin;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public double getMean() {
+        return mCount == 0 ? 0 : (double) mSum / mCount;
+    }
+
+    /**
+     * @param percentile Percentile, between 0 and 100.
+     * @return Upper bound of the values below the percentile, clamped to the recorded range, or
+     * 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        if (mCount == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * mCount));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += mBuckets[bucket];
+            if (seen >= rank) {
+                long upper = bucket == 0 ? 0 : (1L << bucket) - 1;
+                return Math.max(mMin, Math.min(mMax, upper));
+            }
+        }
+        return mMax;
+    }
+
+    public void reset() {
+        Arrays.fill(mBuckets, 0);
+        mCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+}
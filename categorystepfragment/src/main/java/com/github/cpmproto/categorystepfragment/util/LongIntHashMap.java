@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.cpmproto.categorystepfragment.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive long keys to primitive int values. Lookups and
+ * updates do not box and do not allocate unless the table has to grow.
+ */
+public final class LongIntHashMap {
+    private static final int MIN_CAPACITY = 8;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] mKeys;
+    private int[] mValues;
+    private boolean[] mUsed;
+    private int mSize;
+    private int mMask;
+    private int mResizeAt;
+
+    public LongIntHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return mUsed[slotOf(key)];
+    }
+
+    /**
+     * @param key          Key to look up.
+     * @param defaultValue Value returned when the key is not mapped.
+     * @return The value mapped to the key, or defaultValue.
+     */
+    public int get(long key, int defaultValue) {
+        int slot = slotOf(key);
+        return mUsed[slot] ? mValues[slot] : defaultValue;
+    }
+
+    /**
+     * Maps a key to a value, replacing any previous value.
+     */
+    public void put(long key, int value) {
+        int slot = slotOf(key);
+        if (mUsed[slot]) {
+            mValues[slot] = value;
+            return;
+        }
+        insertAt(slot, key, value);
+    }
+
+    /**
+     * Maps a key to a value only if the key is not mapped yet.
+     *
+     * @return True if the value was added.
+     */
+    public boolean putIfAbsent(long key, int value) {
+        int slot = slotOf(key);
+        if (mUsed[slot])
+            return false;
+
+        insertAt(slot, key, value);
+        return true;
+    }
+
+    /**
+     * @param key          Key to remove.
+     * @param defaultValue Value returned when the key is not mapped.
+     * @return The value that was mapped to the key, or defaultValue.
+     */
+    public int remove(long key, int defaultValue) {
+        int slot = slotOf(key);
+        if (!mUsed[slot])
+            return defaultValue;
+
+        int value = mValues[slot];
+        mUsed[slot] = false;
+        mSize--;
+
+        // Shift back the entries of the probe chain that follows the freed slot.
+        int free = slot;
+        int next = (slot + 1) & mMask;
+        while (mUsed[next]) {
+            int home = hash(mKeys[next]) & mMask;
+            if (((next - home) & mMask) >= ((next - free) & mMask)) {
+                mKeys[free] = mKeys[next];
+                mValues[free] = mValues[next];
+                mUsed[free] = true;
+                mUsed[next] = false;
+                free = next;
+            }
+            next = (next + 1) & mMask;
+        }
+        return value;
+    }
+
+    public void clear() {
+        if (mSize == 0)
+            return;
+
+        Arrays.fill(mUsed, false);
+        mSize = 0;
+    }
+
+    private void insertAt(int slot, long key, int value) {
+        mKeys[slot] = key;
+        mValues[slot] = value;
+        mUsed[slot] = true;
+
+        if (++mSize > mResizeAt)
+            rehash(mKeys.length << 1);
+    }
+
+    private int slotOf(long key) {
+        int slot = hash(key) & mMask;
+        while (mUsed[slot] && mKeys[slot] != key)
+            slot = (slot + 1) & mMask;
+
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = mKeys;
+        int[] values = mValues;
+        boolean[] used = mUsed;
+
+        allocate(capacity);
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                int slot = slotOf(keys[i]);
+                mKeys[slot] = keys[i];
+                mValues[slot] = values[i];
+                mUsed[slot] = true;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new int[capacity];
+        mUsed = new boolean[capacity];
+        mMask = capacity - 1;
+        mResizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * LOAD_FACTOR < expectedSize)
+            capacity <<= 1;
+
+        return capacity;
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.cpmproto.categorystepfragment.base;
+
+import android.support.v17.leanback.widget.GuidedAction;
+import android.support.v17.leanback.widget.GuidedActionsStylist;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+
+import com.github.cpmproto.categorystepfragment.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class CategoryActionAdapterTest {
+    private final List<GuidedAction> first = new ArrayList<>();
+    private final List<GuidedAction> second = new ArrayList<>();
+    private final Notifications notifications = new Notifications();
+    private GuidedAction header;
+    private CategoryActionAdapter adapter;
+
+    @Before
+    public void setUp() {
+        header = action(0);
+        first.add(header);
+        second.add(header);
+        for (int i = 1; i <= 10; i++) {
+            GuidedAction action = action(i);
+            first.add(action);
+            if (i <= 5)
+                second.add(action);
+        }
+        for (int i = 11; i <= 15; i++)
+            second.add(action(i));
+
+        adapter = new CategoryActionAdapter(first, null, null, new GuidedActionsStylist(), false);
+        adapter.registerAdapterDataObserver(notifications);
+    }
+
+    @Test
+    public void diffSwitchOnlyChangesTheHeader() {
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                new CategoryActionAdapter.ActionDiffCallback(first, second, header), true);
+        adapter.setActions(second, diff);
+
+        // The shared rows keep their views; only the header follows the category.
+        assertEquals(1, notifications.changed);
+        assertEquals(5, notifications.removed);
+        assertEquals(5, notifications.inserted);
+        assertEquals(second.size(), adapter.getItemCount());
+        assertSame(second.get(10), adapter.getItem(10));
+        assertEquals(10, adapter.getPositionById(15));
+    }
+
+    @Test
+    public void appendIsASingleRangeInsert() {
+        List<GuidedAction> added = new ArrayList<>();
+        for (int i = 100; i < 120; i++)
+            added.add(action(i));
+
+        adapter.getPositionById(0);
+        adapter.appendActions(added);
+
+        assertEquals(1, notifications.events);
+        assertEquals(added.size(), notifications.inserted);
+        assertEquals(0, notifications.changed);
+        assertEquals(first.size() + added.size() - 1, adapter.getPositionById(119));
+    }
+
+    private static GuidedAction action(long id) {
+        return new GuidedAction.Builder(RuntimeEnvironment.application)
+                .id(id)
+                .title("Action " + id)
+                .build();
+    }
+
+    private static final class Notifications extends RecyclerView.AdapterDataObserver {
+        int events;
+        int changed;
+        int inserted;
+        int removed;
+
+        @Override
+        public void onChanged() {
+            events++;
+            changed = Integer.MAX_VALUE;
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            events++;
+            changed += itemCount;
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            events++;
+            inserted += itemCount;
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            events++;
+            removed += itemCount;
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            events++;
+        }
+    }
+}
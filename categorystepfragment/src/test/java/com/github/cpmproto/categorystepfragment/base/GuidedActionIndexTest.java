@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.cpmproto.categorystepfragment.base;
+
+import android.support.v17.leanback.widget.GuidedAction;
+
+import com.github.cpmproto.categorystepfragment.BuildConfig;
+import com.github.cpmproto.categorystepfragment.action.GuidedActionList;
+import com.github.cpmproto.categorystepfragment.util.Allocations;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class GuidedActionIndexTest {
+    private static final int CATEGORIES = 3;
+    private static final int ITEMS = 50;
+    private static final int LOOKUPS = 1000;
+
+    private final GuidedActionIndex index = new GuidedActionIndex();
+    private final List<GuidedActionList> lists = new ArrayList<>();
+    private GuidedAction header;
+
+    @Before
+    public void setUp() {
+        header = action(0);
+        long id = 1;
+        for (int c = 0; c < CATEGORIES; c++) {
+            List<GuidedAction> actions = new ArrayList<>();
+            if (c == 0)
+                actions.add(header);
+
+            for (int i = 0; i < ITEMS; i++)
+                actions.add(action(id++));
+
+            lists.add(new GuidedActionList("Category " + c, actions));
+        }
+        index.setActions(lists, "Category 0");
+    }
+
+    @Test
+    public void composesCategoriesBehindTheHeader() {
+        List<GuidedAction> composed = index.getComposedActions("Category 1");
+
+        assertEquals(ITEMS + 1, composed.size());
+        assertSame(header, composed.get(0));
+        assertSame(lists.get(1).getActions().get(0), composed.get(1));
+        assertEquals(1, index.findPosition("Category 1", ITEMS + 1));
+    }
+
+    @Test
+    public void repeatedLookupsDoNotAllocate() {
+        Allocations.assumeSupported();
+        lookUpAll();
+
+        long bytes = Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < LOOKUPS; i++)
+                    lookUpAll();
+            }
+        });
+
+        // Less than a byte per lookup: a copy of any list would cost far more.
+        assertTrue("Lookups allocated " + bytes + " bytes", bytes < LOOKUPS);
+    }
+
+    @Test
+    public void appendExtendsTheCachedListInPlace() {
+        List<GuidedAction> composed = index.getComposedActions("Category 2");
+        index.findPosition("Category 2", 0);
+
+        List<GuidedAction> added = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            added.add(action(1000 + i));
+
+        lists.get(2).getActions().addAll(added);
+        index.append("Category 2", added);
+
+        assertSame(composed, index.getComposedActions("Category 2"));
+        assertEquals(ITEMS + 11, composed.size());
+        assertEquals(ITEMS + 1, index.findPosition("Category 2", 1000));
+    }
+
+    @Test
+    public void replaceKeepsTheCachedListAndIndex() {
+        List<GuidedAction> composed = index.getComposedActions("Category 1");
+        index.findPosition("Category 1", 0);
+
+        GuidedAction old = lists.get(1).getActions().get(3);
+        GuidedAction replacement = action(2000);
+        lists.get(1).getActions().set(3, replacement);
+        index.replace("Category 1", 3, old, replacement);
+
+        assertSame(composed, index.getComposedActions("Category 1"));
+        assertSame(replacement, composed.get(4));
+        assertEquals(4, index.findPosition("Category 1", 2000));
+        assertEquals(-1, index.findPosition("Category 1", old.getId()));
+    }
+
+    @Test
+    public void appendToACategoryWithoutActions() {
+        lists.add(new GuidedActionList("Empty", null));
+        index.setActions(lists, "Category 0");
+        index.getComposedActions("Empty");
+
+        List<GuidedAction> added = new ArrayList<>();
+        added.add(action(3000));
+        index.append("Empty", added);
+
+        assertEquals(1, index.getComposedActions("Empty").size());
+        assertEquals(0, index.findPosition("Empty", 3000));
+    }
+
+    private void lookUpAll() {
+        for (int c = 0; c < CATEGORIES; c++) {
+            String key = lists.get(c).getKey();
+            index.getComposedActions(key);
+            index.findPosition(key, c * ITEMS + 1);
+        }
+    }
+
+    private static GuidedAction action(long id) {
+        return new GuidedAction.Builder(RuntimeEnvironment.application)
+                .id(id)
+                .title("Action " + id)
+                .build();
+    }
+}
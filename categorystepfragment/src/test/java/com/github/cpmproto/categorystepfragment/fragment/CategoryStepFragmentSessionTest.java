@@ -0,0 +1,482 @@
+/*
+ * Copyright (C) 2016 Dewin J. Martínez (@cpmproto) <dewin.martinez@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.github.cpmproto.categorystepfragment.fragment;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.content.res.Configuration;
+import android.os.Bundle;
+import android.support.v17.leanback.widget.GuidedAction;
+import android.support.v17.leanback.widget.GuidedActionAdapter;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+import com.github.cpmproto.categorystepfragment.BuildConfig;
+import com.github.cpmproto.categorystepfragment.action.ActionCategory;
+import com.github.cpmproto.categorystepfragment.action.ActionElement;
+import com.github.cpmproto.categorystepfragment.action.CompositeActionCategory;
+import com.github.cpmproto.categorystepfragment.base.Category;
+import com.github.cpmproto.categorystepfragment.base.GuidedStepListFragment;
+import com.github.cpmproto.categorystepfragment.base.StepMetrics;
+import com.github.cpmproto.categorystepfragment.util.Allocations;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.ActivityController;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Drives a {@link CategoryStepFragment} through a user session (build, category switches, item
+ * clicks, element updates and rotation) and holds each operation to a budget of main thread
+ * allocations and rows bound. Switches run in
+ * {@link GuidedStepListFragment#CATEGORY_SWITCH_DIFF} mode, where rows shared by both categories
+ * must keep their views. The host activity is declared in the test manifest.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, manifest = "TestAndroidManifest.xml")
+public class CategoryStepFragmentSessionTest {
+    private static final int CATEGORIES = 3;
+    private static final int ELEMENTS_PER_CATEGORY = 30;
+    private static final int ALL = 0;
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final int LOOKUPS = 1000;
+
+    // Copies of the rows a switch may make on the main thread: the adapter copies the new rows
+    // and the old ones are handed to the diff in the background. Anything else per row exceeds
+    // the budget.
+    private static final int SWITCH_ROW_COPIES = 2;
+
+    private ActivityController<HostActivity> controller;
+    private CategoryStepFragment fragment;
+    private final Rows rows = new Rows();
+    private final List<Integer> rowsBound = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        controller = Robolectric.buildActivity(HostActivity.class).setup().visible();
+        attach();
+    }
+
+    @After
+    public void tearDown() {
+        controller.pause().stop().destroy();
+    }
+
+    @Test
+    public void buildShowsEveryCategoryInAll() {
+        assertShows(fragment.getActionsByKey(keyOf(ALL)));
+        assertEquals(1 + CATEGORIES * ELEMENTS_PER_CATEGORY, adapter().getCount());
+    }
+
+    @Test
+    public void lookupsOfBuiltCategoriesDoNotAllocate() {
+        Allocations.assumeSupported();
+        lookUpAll();
+
+        long bytes = Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < LOOKUPS; i++)
+                    lookUpAll();
+            }
+        });
+
+        // Less than a byte per lookup: a copy of any category would cost far more.
+        assertTrue("Lookups allocated " + bytes + " bytes", bytes < LOOKUPS);
+    }
+
+    @Test
+    public void switchingCategoryRebindsOnlyChangedRows() {
+        for (int category : new int[]{1, 2, ALL, 3, 1, ALL}) {
+            rows.reset();
+            switchTo(category);
+            assertBoundOnlyDiffedRows(category);
+        }
+    }
+
+    @Test
+    public void switchingCategoryStaysWithinAllocationBudget() {
+        Allocations.assumeSupported();
+        switchTo(1);
+        switchTo(ALL);
+
+        int shown = ALL;
+        for (int category : new int[]{1, 2, ALL}) {
+            // The budget is measured in this run rather than assumed: a switch to the category
+            // already shown has nothing to diff and costs what any switch does besides its rows.
+            long fixedBytes = measureSwitch(shown);
+            long copyBytes = measureCopy(fragment.getActionsByKey(keyOf(shown)))
+                    + measureCopy(fragment.getActionsByKey(keyOf(category)));
+            long bytes = measureSwitch(category);
+
+            long budget = fixedBytes + SWITCH_ROW_COPIES * copyBytes;
+            assertTrue("Switch to " + keyOf(category) + " allocated " + bytes + " bytes, over "
+                    + budget, bytes <= budget);
+            shown = category;
+        }
+    }
+
+    @Test
+    public void clickingAnItemRebindsNothing() {
+        GuidedAction item = adapter().getItem(1);
+        RecyclerView.ViewHolder holder = grid().findViewHolderForAdapterPosition(1);
+        assertNotNull(holder);
+        rows.reset();
+
+        // The click goes through the listener the adapter set on the row.
+        assertTrue(holder.itemView.performClick());
+        idle();
+        layout();
+
+        assertSame(item, host().clicked);
+        assertEquals(0, rows.notifications);
+        assertSame(holder, grid().findViewHolderForAdapterPosition(1));
+    }
+
+    @Test
+    public void elementUpdateRebindsOneRow() {
+        GuidedAction item = adapter().getItem(1);
+        rows.reset();
+
+        fragment.postElementUpdate(new ActionElement((int) item.getId(), "Updated", "", null));
+        fragment.postElementUpdate(new ActionElement((int) item.getId(), "Updated again", "", null));
+        idle();
+        layout();
+
+        assertEquals("Updated again", item.getTitle().toString());
+        assertEquals(1, rows.changed);
+        assertEquals(0, rows.inserted);
+    }
+
+    @Test
+    public void lazyBuildCreatesOnlyTheFirstPageOfAll() {
+        controller.pause().stop().destroy();
+        controller = Robolectric.buildActivity(HostActivity.class)
+                .withIntent(new Intent().putExtra(HostActivity.EXTRA_LAZY, true))
+                .setup().visible();
+        attach();
+
+        Set<GuidedAction> created = Collections.newSetFromMap(new IdentityHashMap<GuidedAction, Boolean>());
+        for (int category = 0; category <= CATEGORIES; category++)
+            created.addAll(fragment.getActionsByKey(keyOf(category)));
+
+        // The header and the first part of "All", which fills the first page. The other parts
+        // are built as the grid is scrolled, the other categories when they are shown.
+        assertTrue("Created " + created.size() + " actions", created.size() <= 1 + ELEMENTS_PER_CATEGORY);
+        assertEquals(created.size(), adapter().getCount());
+    }
+
+    @Test
+    public void rotationKeepsCategoryAndSharedRows() {
+        switchTo(2);
+        List<GuidedAction> shown = fragment.getActionsByKey(keyOf(2));
+
+        Configuration configuration = new Configuration(
+                controller.get().getResources().getConfiguration());
+        configuration.orientation = Configuration.ORIENTATION_PORTRAIT;
+        controller.configurationChange(configuration);
+        attach();
+
+        assertEquals(keyOf(2), fragment.getCurrentCategoryKey());
+        assertShows(shown);
+
+        rows.reset();
+        switchTo(ALL);
+        assertBoundOnlyDiffedRows(ALL);
+    }
+
+    private void attach() {
+        GuidedStepListFragment current = GuidedStepListFragment.getCurrentGuidedStepListFragment(
+                controller.get().getFragmentManager());
+        assertNotNull(current);
+        fragment = (CategoryStepFragment) current;
+        fragment.setMetricsListener(new MetricsRecorder());
+        idle();
+        adapter().registerAdapterDataObserver(rows);
+        layout();
+    }
+
+    private HostActivity host() {
+        return controller.get();
+    }
+
+    private RecyclerView grid() {
+        return fragment.getGuidedActionsStylist().getActionsGridView();
+    }
+
+    private GuidedActionAdapter adapter() {
+        return (GuidedActionAdapter) grid().getAdapter();
+    }
+
+    /**
+     * Looks an item up in every category by id. getActionsByKey is left out, as it returns a copy.
+     */
+    private void lookUpAll() {
+        for (int category = 0; category <= CATEGORIES; category++) {
+            String key = keyOf(category);
+            fragment.findActionPositionById(category + 1, key);
+            fragment.findActionById(category + 1, key);
+        }
+    }
+
+    /**
+     * Picks a category in the chooser the way its adapter does on click.
+     */
+    private void choose(int category) {
+        GuidedAction chooser = adapter().getItem(0);
+        GuidedAction row = chooser.getSubActions().get(category);
+        row.setChecked(true);
+        fragment.onSubGuidedActionClicked(row);
+        fragment.switchCategory(fragment.onProvideCategoryKey(row));
+    }
+
+    private void switchTo(int category) {
+        choose(category);
+        awaitShown(keyOf(category));
+        layout();
+    }
+
+    /**
+     * @return Main thread bytes allocated by picking a category, which is then shown.
+     */
+    private long measureSwitch(final int category) {
+        long bytes = Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                choose(category);
+            }
+        });
+        awaitShown(keyOf(category));
+        layout();
+        return bytes;
+    }
+
+    private static long measureCopy(final List<GuidedAction> actions) {
+        return Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                new ArrayList<>(actions);
+            }
+        });
+    }
+
+    private void awaitShown(String key) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        List<GuidedAction> expected = fragment.getActionsByKey(key);
+        while (!shows(expected)) {
+            if (System.currentTimeMillis() > deadline)
+                fail("Category " + key + " was not shown");
+
+            ShadowLooper.runUiThreadTasks();
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail("Interrupted");
+            }
+        }
+    }
+
+    private boolean shows(List<GuidedAction> expected) {
+        GuidedActionAdapter adapter = adapter();
+        if (adapter.getCount() != expected.size())
+            return false;
+
+        for (int i = 0, size = expected.size(); i < size; i++) {
+            if (adapter.getItem(i) != expected.get(i))
+                return false;
+        }
+        return true;
+    }
+
+    private void assertShows(List<GuidedAction> expected) {
+        assertTrue("Rows differ from " + expected, shows(expected));
+    }
+
+    private void idle() {
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    }
+
+    /**
+     * Lays the window out and dispatches the pre-draw pass that reports the rows bound.
+     */
+    private void layout() {
+        View decor = host().getWindow().getDecorView();
+        decor.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        decor.layout(0, 0, WIDTH, HEIGHT);
+        decor.getViewTreeObserver().dispatchOnPreDraw();
+    }
+
+    /**
+     * Checks the last switch bound only the header, whose description follows the category, and
+     * rows new to the list. "All" shares its actions with its parts, so no other row changes.
+     */
+    private void assertBoundOnlyDiffedRows(int category) {
+        assertTrue("No category switch was recorded", !rowsBound.isEmpty());
+        int bound = rowsBound.get(rowsBound.size() - 1);
+        assertEquals(0, rows.resets);
+        assertTrue("Switch to " + keyOf(category) + " bound " + bound + " rows for "
+                + rows.inserted + " inserted", bound <= 1 + rows.inserted);
+    }
+
+    private static String keyOf(int category) {
+        return category == ALL ? "All" : "Category " + category;
+    }
+
+    /**
+     * Counts the rows notified to the adapter of the actions.
+     */
+    private static final class Rows extends RecyclerView.AdapterDataObserver {
+        int notifications;
+        int resets;
+        int changed;
+        int inserted;
+
+        void reset() {
+            notifications = 0;
+            resets = 0;
+            changed = 0;
+            inserted = 0;
+        }
+
+        @Override
+        public void onChanged() {
+            notifications++;
+            resets++;
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            notifications++;
+            changed += itemCount;
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            notifications++;
+            inserted += itemCount;
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            notifications++;
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            notifications++;
+        }
+    }
+
+    private final class MetricsRecorder implements StepMetrics.Listener {
+        @Override
+        public void onFirstFrame(long nanos) {
+        }
+
+        @Override
+        public void onActionsCreated(long nanos) {
+        }
+
+        @Override
+        public void onCategorySwitched(String key, long nanos, int bound) {
+            rowsBound.add(bound);
+        }
+
+        @Override
+        public void onIconLoaded(long nanos, boolean cached) {
+        }
+    }
+
+    /**
+     * Hosts the fragment with a catalog of a few categories and an "All" category made of them.
+     * The fragment is retained, so a rotation rebuilds its views but keeps its catalog. With
+     * {@link #EXTRA_LAZY} categories are built lazily, a part of "All" per page.
+     */
+    public static class HostActivity extends Activity implements StepClickListener {
+        static final String EXTRA_LAZY = "lazy";
+
+        GuidedAction clicked;
+
+        @Override
+        public void onCreate(Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+            if (savedInstanceState != null)
+                return;
+
+            GuidedStepListFragment fragment = CategoryStepFragment.build(getData(), this,
+                    new Category("Category", "Select one", keyOf(ALL)));
+            fragment.setRetainInstance(true);
+            fragment.setCategorySwitchMode(GuidedStepListFragment.CATEGORY_SWITCH_DIFF);
+            if (getIntent().getBooleanExtra(EXTRA_LAZY, false)) {
+                CategoryStepFragment categoryStepFragment = (CategoryStepFragment) fragment;
+                categoryStepFragment.setLazyCategories(true);
+                categoryStepFragment.setMaxBuiltCategories(1);
+                categoryStepFragment.setCatalogPageSize(ELEMENTS_PER_CATEGORY);
+                categoryStepFragment.setPrefetchDistance(0);
+            }
+            GuidedStepListFragment.addAsRoot(this, fragment, android.R.id.content);
+        }
+
+        private static List<ActionCategory> getData() {
+            List<ActionCategory> parts = new ArrayList<>();
+            int id = 1;
+            for (int category = 1; category <= CATEGORIES; category++) {
+                List<ActionElement> elements = new ArrayList<>();
+                for (int i = 0; i < ELEMENTS_PER_CATEGORY; i++, id++)
+                    elements.add(new ActionElement(id, "Element " + id, "", null));
+
+                parts.add(new ActionCategory(keyOf(category), elements));
+            }
+
+            List<ActionCategory> actionCategories = new ArrayList<>();
+            actionCategories.add(new CompositeActionCategory(keyOf(ALL), parts));
+            actionCategories.addAll(parts);
+            return actionCategories;
+        }
+
+        @Override
+        public boolean onSubGuidedActionClicked(GuidedAction action) {
+            return false;
+        }
+
+        @Override
+        public void onGuidedActionClicked(GuidedAction action) {
+            clicked = action;
+        }
+    }
+}